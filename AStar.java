@@ -0,0 +1,138 @@
+public class AStar implements Router {
+
+    /*
+     * A* search towards the destination. Edge weights are great-circle distances,
+     * and the straight chord through the earth between two points is never longer
+     * than the great-circle distance, so the chord to the destination is an
+     * admissible and consistent lower bound.
+     * Using the chord rather than haversine keeps trig out of the search: each
+     * node's position on the unit sphere is computed once per graph
+     * (Graph.getUnitVectors()) and the bound costs a few multiplications and a sqrt.
+     * With Landmarks (--algo alt) the bound is the larger of the chord and the
+     * landmark bound, which is much tighter where roads detour.
+     * Not thread safe: create one instance per routing thread.
+     */
+
+    private static final double EARTH_RADIUS = 3958.756; // miles, the same radius as Edge.haversine.
+    private static final double SAFETY = 1 - 1e-9; // Keeps rounding from making the bound overestimate.
+
+    private final Graph graph;
+    private final SearchState state;
+    private final double[] unitVectors; // x, y, z of every node on the unit sphere.
+    private final boolean useLandmarks; // false for plain A*.
+    private double[] targetDistances; // Landmark distances of the current target.
+    private final SearchStats stats;
+    private long relaxed; // Roads looked at by the current query, for stats.
+
+    public AStar(Graph graph) {
+        this(graph, false);
+    }
+
+    public AStar(Graph graph, boolean useLandmarks) {
+
+        /*
+         * With landmarks, the graph's current tables are looked up at the start of
+         * every query, since road updates can replace them (see Graph.update()).
+         */
+
+        this.graph = graph;
+        this.state = new SearchState(graph.getNodeCount());
+        this.unitVectors = graph.getUnitVectors();
+        this.useLandmarks = useLandmarks;
+        this.targetDistances = useLandmarks ? new double[graph.getLandmarks().getCount()] : null;
+        this.stats = new SearchStats(useLandmarks ? "alt" : "astar");
+    }
+
+    @Override
+    public RouteResult route(int source, int target) {
+        stats.begin(source, target, state.getHeap(), null);
+        relaxed = 0;
+        RouteResult result = search(source, target);
+        stats.end(result, relaxed, state.getHeap(), null);
+        return result;
+    }
+
+    @Override
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    private RouteResult search(int source, int target) {
+
+        /*
+         * Same as Dijkstra, except that the heap is keyed by distance from source
+         * plus the lower bound to target, so the search is pulled towards target.
+         * A node whose distance still improves after it was polled is simply queued
+         * again, which keeps the result exact even if rounding makes the bound
+         * slightly inconsistent.
+         */
+
+        // The roads and the landmarks of one version: update() replaces both under the graph's lock.
+        Adjacency adjacency;
+        Landmarks landmarks = null;
+        if (useLandmarks) {
+            synchronized (graph) {
+                adjacency = graph.getAdjacency();
+                landmarks = graph.getLandmarks();
+            }
+            if (targetDistances.length != landmarks.getCount()) {
+                targetDistances = new double[landmarks.getCount()];
+            }
+        } else {
+            adjacency = graph.getAdjacency();
+        }
+        if (!adjacency.getComponents().connected(source, target)) {
+            return null; // Different components, so there is nothing to search.
+        }
+
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+        double[] weights = adjacency.getWeights();
+        IndexedHeap heap = state.getHeap();
+
+        double tx = unitVectors[3 * target];
+        double ty = unitVectors[3 * target + 1];
+        double tz = unitVectors[3 * target + 2];
+        if (landmarks != null) {
+            landmarks.loadTarget(target, targetDistances);
+        }
+
+        state.reset();
+        state.update(source, 0.0, -1);
+        heap.push(source, 0.0);
+
+        while (!heap.isEmpty()) {
+            int curr = heap.poll();
+            if ((heap.getPolls() & (Router.CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                Router.checkCancelled();
+            }
+
+            if (curr == target) {
+                return new RouteResult(state.getDistance(target), state.pathTo(target));
+            }
+
+            double currDistance = state.getDistance(curr);
+            relaxed += offsets[curr + 1] - offsets[curr];
+            for (int slot = offsets[curr]; slot < offsets[curr + 1]; slot++) {
+                int neighbor = targets[slot];
+                double alt = currDistance + weights[slot];
+
+                if (alt < state.getDistance(neighbor)) {
+                    state.update(neighbor, alt, curr);
+
+                    double dx = unitVectors[3 * neighbor] - tx;
+                    double dy = unitVectors[3 * neighbor + 1] - ty;
+                    double dz = unitVectors[3 * neighbor + 2] - tz;
+                    double bound = EARTH_RADIUS * SAFETY * Math.sqrt(dx * dx + dy * dy + dz * dz);
+                    if (landmarks != null) {
+                        bound = Math.max(bound, landmarks.bound(neighbor, targetDistances));
+                    }
+
+                    heap.pushOrDecrease(neighbor, alt + bound);
+                }
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,138 @@
+public class Adjacency {
+
+    /*
+     * Compressed-sparse-row adjacency of the graph. Nodes are addressed by their
+     * index (see Node.getIndex()). The neighbours of node u are stored in the slots
+     * offsets[u] .. offsets[u + 1] - 1 of targets, weights and edgeIds, so routing
+     * can walk them without any map lookups or boxing.
+     * Every road is stored twice, once for each direction, because the graph is
+     * undirected.
+     * An Adjacency is never changed once built. Road updates build a new one
+     * (see Graph.update()), so a search that holds on to one sees one version of
+     * the roads from start to end.
+     */
+
+    private final int[] offsets; // offsets[u] is the first slot of node u, offsets[nodeCount] is the slot count.
+    private final int[] targets; // Index of the neighbouring node in each slot.
+    private final double[] weights; // Weight of the road in each slot, the same as Edge.getWeight().
+    private final int[] edgeIds; // Position of the road in Graph.getEdges() for each slot.
+    private Components components; // Connected components of this version. Created on first use.
+
+    public Adjacency(int[] offsets, int[] targets, double[] weights, int[] edgeIds) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.edgeIds = edgeIds;
+    }
+
+    public static Adjacency build(int nodeCount, int[] starts, int[] ends, double[] edgeWeights) {
+
+        /*
+         * Builds the adjacency from parallel arrays describing the edges: the start
+         * node index, end node index and weight of every edge. Slots of a node are
+         * filled in edge order, which keeps neighbour order the same as the old
+         * list based adjacency.
+         */
+
+        int[] roads = new int[starts.length];
+        for (int e = 0; e < roads.length; e++) {
+            roads[e] = e;
+        }
+        return build(nodeCount, starts, ends, edgeWeights, roads);
+    }
+
+    public static Adjacency build(int nodeCount, int[] starts, int[] ends, double[] edgeWeights, int[] roads) {
+
+        /* The same, but edge e is stored with the road number roads[e] instead of e. */
+
+        int edgeCount = starts.length;
+        int[] offsets = new int[nodeCount + 1];
+
+        for (int e = 0; e < edgeCount; e++) {
+            offsets[starts[e] + 1]++;
+            offsets[ends[e] + 1]++;
+        }
+        for (int u = 0; u < nodeCount; u++) {
+            offsets[u + 1] += offsets[u];
+        }
+
+        int[] next = new int[nodeCount]; // The next free slot of every node.
+        System.arraycopy(offsets, 0, next, 0, nodeCount);
+
+        int[] targets = new int[2 * edgeCount];
+        double[] weights = new double[2 * edgeCount];
+        int[] edgeIds = new int[2 * edgeCount];
+
+        for (int e = 0; e < edgeCount; e++) {
+            int a = starts[e];
+            int b = ends[e];
+
+            int slot = next[a]++;
+            targets[slot] = b;
+            weights[slot] = edgeWeights[e];
+            edgeIds[slot] = roads[e];
+
+            slot = next[b]++;
+            targets[slot] = a;
+            weights[slot] = edgeWeights[e];
+            edgeIds[slot] = roads[e];
+        }
+
+        return new Adjacency(offsets, targets, weights, edgeIds);
+    }
+
+    public int getNodeCount() {
+        return offsets.length - 1;
+    }
+
+    public int getSlotCount() {
+        return targets.length;
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getTargets() {
+        return targets;
+    }
+
+    public double[] getWeights() {
+        return weights;
+    }
+
+    public int[] getEdgeIds() {
+        return edgeIds;
+    }
+
+    public synchronized Components getComponents() {
+        if (components == null) {
+            components = new Components(this);
+        }
+        return components;
+    }
+
+    public long fingerprint() {
+
+        /*
+         * A hash of the topology and weights. Stored next to precomputed data such
+         * as a contraction hierarchy, so it is not reused for a different map.
+         */
+
+        long hash = 1125899906842597L;
+        for (int offset : offsets) {
+            hash = 31 * hash + offset;
+        }
+        for (int target : targets) {
+            hash = 31 * hash + target;
+        }
+        for (double weight : weights) {
+            hash = 31 * hash + Double.doubleToLongBits(weight);
+        }
+        return hash;
+    }
+
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+}
@@ -2,26 +2,53 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Properties;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class App {
     /*
-     * Main class for GUI. Creates an empty window.
+     * Main class for GUI. The window is shown before the map is loaded: while
+     * CommandLine reads the graph on its own thread, the roads are drawn batch
+     * by batch as they are parsed (see getLoadListener()), and a status bar
+     * shows the progress with a button to cancel reading. Once the graph is
+     * complete the rendered map replaces the preview, and the route is overlaid
+     * when it has been computed. The later stages can not be cancelled, so the
+     * button goes away when the graph is loaded (see finishLoading()). The
+     * methods that take data from the loading thread hand it to the event
+     * dispatch thread themselves, so they can be called from any thread.
+     * Once the map is shown, clicking two points routes between the nearest
+     * intersections (see DrawingPanel.mouseClicked).
      */
 
     private int windowHeight;
     private int windowWidth;
     private String windowTitle;
-    private Graph graph;
-    private List<Node> path;
+    private String fileName;
+    private volatile boolean cancelled; // Set by the cancel button, read by the loading thread.
+    private volatile boolean loading = true; // Until the graph is loaded; only then can it be cancelled.
 
-    public App(String configPath, Graph graph, List<Node> path) {
+    private DrawingPanel panel;
+    private JProgressBar progressBar;
+    private JLabel statusLabel;
+    private JButton cancelButton;
+
+    public App(String configPath, String fileName) {
         loadSettings(configPath);
-        this.graph = graph;
-        this.path = path;
+        this.fileName = fileName;
     }
 
     private void loadSettings(String configPath) {
@@ -52,13 +79,155 @@ public class App {
         frame.setSize(windowWidth, windowHeight);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        DrawingPanel panel = new DrawingPanel(graph, path);
-        frame.add(panel);
+        panel = new DrawingPanel(fileName);
+        frame.add(panel, BorderLayout.CENTER);
+
+        statusLabel = new JLabel("Loading " + fileName);
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> {
+            if (!loading) {
+                return;
+            }
+            cancelled = true;
+            cancelButton.setEnabled(false);
+            statusLabel.setText("Cancelling...");
+        });
+        JPanel statusBar = new JPanel(new BorderLayout(8, 0));
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        JPanel controls = new JPanel(new BorderLayout(8, 0));
+        controls.add(progressBar, BorderLayout.CENTER);
+        controls.add(cancelButton, BorderLayout.EAST);
+        statusBar.add(controls, BorderLayout.EAST);
+        frame.add(statusBar, BorderLayout.SOUTH);
 
         frame.setVisible(true);
 
     }
 
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void finishLoading() {
+
+        /* Called once the graph is loaded. Nothing after that can be cancelled, so the button goes. */
+
+        loading = false;
+        SwingUtilities.invokeLater(() -> cancelButton.setVisible(false));
+    }
+
+    public GraphParser.Listener getLoadListener() {
+
+        /* Passed to the Graph constructor: shows the progress and draws the roads as they arrive. */
+
+        return new GraphParser.Listener() {
+            private double smallestLatitude;
+            private double smallestLongitude;
+
+            @Override
+            public void progress(String stage, int done, int total) {
+                showProgress(stage, done, total);
+            }
+
+            @Override
+            public void nodesParsed(Map<String, Node> nodes) {
+                // The origin of the map coordinates, the same one MapRenderer will use.
+                smallestLatitude = Double.POSITIVE_INFINITY;
+                smallestLongitude = Double.POSITIVE_INFINITY;
+                for (Node node : nodes.values()) {
+                    smallestLatitude = Math.min(smallestLatitude, node.getLatitude());
+                    smallestLongitude = Math.min(smallestLongitude, node.getLongitude());
+                }
+            }
+
+            @Override
+            public void roadsParsed(List<Edge> roads) {
+                Path2D.Float batch = new Path2D.Float(Path2D.WIND_NON_ZERO, 2 * roads.size());
+                double m = MapRenderer.COORDINATE_MULTIPLIER;
+                for (Edge road : roads) {
+                    batch.moveTo((road.getStart().getLatitude() - smallestLatitude) * m,
+                            (road.getStart().getLongitude() - smallestLongitude) * m);
+                    batch.lineTo((road.getEnd().getLatitude() - smallestLatitude) * m,
+                            (road.getEnd().getLongitude() - smallestLongitude) * m);
+                }
+                SwingUtilities.invokeLater(() -> panel.addPreview(batch));
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled;
+            }
+        };
+    }
+
+    public void showProgress(String stage, int done, int total) {
+
+        /* Shows a stage of the work in the status bar; total 0 means its length is unknown. */
+
+        SwingUtilities.invokeLater(() -> {
+            if (cancelled && loading) {
+                return; // A chunk reported late, after the cancel was shown.
+            }
+            statusLabel.setText(total > 0 ? stage + " (" + done + " of " + total + ")" : stage + "...");
+            progressBar.setVisible(true);
+            progressBar.setIndeterminate(total <= 0);
+            if (total > 0) {
+                progressBar.setMaximum(total);
+                progressBar.setValue(done);
+            }
+        });
+    }
+
+    public void showStatus(String text) {
+
+        /* Shows text once the work is done or cancelled, without progress bar and cancel button. */
+
+        SwingUtilities.invokeLater(() -> {
+            statusLabel.setText(text);
+            progressBar.setVisible(false);
+            cancelButton.setVisible(false);
+        });
+    }
+
+    public void setGraph(Graph graph, String algorithm) {
+
+        /*
+         * Replaces the preview by the rendered map. The renderer, with its
+         * simplified geometry, the spatial index used to snap clicks and the
+         * router for clicked routes are created on the calling thread, before
+         * clicks are accepted. For ch and alt the router loads or builds the
+         * .ch or .alt file, which must not happen in a search a click can cancel.
+         */
+
+        MapRenderer renderer = new MapRenderer(graph);
+        graph.getSpatialIndex();
+        Router router = Router.create(graph, algorithm);
+        SwingUtilities.invokeLater(() -> panel.setRenderer(renderer, graph, algorithm, router));
+    }
+
+    public void setRoute(List<Node> path) {
+        BitSet route = null;
+        if (path != null) {
+            route = new BitSet();
+            for (Node node : path) {
+                route.set(node.getIndex());
+            }
+        }
+        BitSet nodes = route;
+        SwingUtilities.invokeLater(() -> panel.setRoute(nodes));
+    }
+
+    public void setIsochrone(IsochroneResult isochrone) {
+
+        /* Used by the --isochrone option; drawn in distance bands. */
+
+        BitSet[] bands = isochrone == null ? null : isochrone.getBands(DrawingPanel.ISOCHRONE_BANDS);
+        SwingUtilities.invokeLater(() -> panel.setIsochroneBands(bands));
+    }
+
     private class DrawingPanel extends JPanel
             implements MouseListener, MouseWheelListener, MouseMotionListener, ComponentListener {
 
@@ -66,53 +235,93 @@ public class App {
          * A JPanel that contains a graph that can be zoomed and translated.
          */
 
+        private static final int MAX_TILES = 1024; // More tiles than this on screen are not drawn as a fallback.
+        private static final int ISOCHRONE_BANDS = 4;
+        private static final BasicStroke PREVIEW_STROKE = new BasicStroke(0); // Thinnest line, for the roads while loading.
+        private static final ExecutorService ROUTING = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "click-routing");
+            thread.setDaemon(true);
+            return thread;
+        }); // Runs clicked route searches, one at a time, off the event dispatch thread.
+
         private int translateX; // The x coordinate of the translation. Used for dragging.
         private int translateY; // The y coordinate of the translation. Used for dragging.
         private Point lastMousePoint; // The last mouse point. Used for dragging.
 
         private double zoomScale; // The zoom scale. Used for zooming using the mouse wheel.
 
-        private double offsetX; // The smallest x coordinate of the graph. Used for scaling. Smallest coordinate
-                                // is the origin.
-        private double offsetY; // The smallest y coordinate of the graph. Used for scaling. Smallest coordinate
-                                // is the origin.
-
         private double scaleX; // The x scale factor. Used for scaling the window.
         private double scaleY; // The y scale factor. Used for scaling the window.
 
-        private double coordinateMultiplier = 100000; // Used for scaling up the coordinate numbers. Java Swing doesn't
-                                                      // support floating point coordinates. As such, the coordinates
-                                                      // are multiplied by this number to make them integers.
         private int width = 800; // Those values are hardcoded. We planned on user being able to set size window
                                  // in config file but due to lack of time abandoned this idea.
         private int height = 572;
 
-        private List<Node> nodes; // The nodes of the graph.
-        private List<Edge> edges; // The edges of the graph.
-
-        private List<Node> path; // The path to be drawn. If null, no path is drawn.
-
-        public DrawingPanel(Graph graph, List<Node> path) {
-            graphSpecificSettings(graph.getFileName());
+        private MapRenderer renderer; // Draws the route on top of the map tiles. Null while loading.
+        private TileCache tiles; // Images of the map, rendered in the background. Null while loading.
+        private List<Path2D.Float> preview = new ArrayList<>(); // Roads parsed so far, drawn while loading.
+        private Graph graph; // Null while loading.
+        private String algorithm; // Used for clicked routes.
+        private Router clickRouter; // Only used on the ROUTING thread.
+        private Node clickStart; // First of the two clicked intersections, null when the next click starts anew.
+        private Future<?> pendingRoute; // The running clicked search, if any.
+        private int routeRequest; // Number of the latest clicked search; older ones are not shown.
+        private int fallbackLevel = Integer.MIN_VALUE; // Last tile level that covered the whole window.
+        private BitSet route; // Indices of the nodes on the path to be drawn. If null, no path is drawn.
+        private BitSet[] isochroneBands; // Nodes of the isochrone by distance band, nearest first. May be null.
+
+        private AffineTransform viewTransform = new AffineTransform(); // Reused by every repaint.
+        private AffineTransform tileTransform = new AffineTransform(); // Tile space to screen, reused too.
+        private Rectangle2D.Double tileBounds = new Rectangle2D.Double(); // Part of tile space that is on screen.
+        private double[] corners = new double[8]; // Window corners, then the same corners mapped back.
+        private Rectangle2D.Double view = new Rectangle2D.Double(); // Part of the map that is on screen.
+        private double frameMillis; // Smoothed time spent in paintComponent, shown in the corner.
+
+        public DrawingPanel(String fileName) {
+            graphSpecificSettings(fileName);
             this.lastMousePoint = null;
 
-            this.offsetX = graph.getSmallestX();
-            this.offsetY = graph.getSmallestY();
-
             this.scaleX = 1.0;
             this.scaleY = 1.0;
 
-            this.nodes = graph.getNodes();
-            this.edges = graph.getEdges();
-
-            this.path = path;
-
             addMouseListener(this);
             addMouseWheelListener(this);
             addMouseMotionListener(this);
             addComponentListener(this);
 
-            setBackground(new Color(102, 204, 102));
+            setBackground(MapRenderer.BACKGROUND_COLOR);
+        }
+
+        void addPreview(Path2D.Float roads) {
+            if (preview != null) {
+                preview.add(roads);
+                repaint();
+            }
+        }
+
+        void setRenderer(MapRenderer renderer, Graph graph, String algorithm, Router clickRouter) {
+            this.renderer = renderer;
+            this.graph = graph;
+            this.algorithm = algorithm;
+            this.clickRouter = clickRouter;
+            if (tiles != null) {
+                // The tiles of the old renderer are of another graph; its workers would stay idle forever.
+                tiles.clear();
+                tiles.shutdown();
+            }
+            this.tiles = new TileCache(renderer, this::repaint);
+            preview = null;
+            repaint();
+        }
+
+        void setRoute(BitSet route) {
+            this.route = route;
+            repaint();
+        }
+
+        void setIsochroneBands(BitSet[] isochroneBands) {
+            this.isochroneBands = isochroneBands;
+            repaint();
         }
 
         private void graphSpecificSettings(String fileName) {
@@ -149,9 +358,12 @@ public class App {
 
         @Override
         protected void paintComponent(Graphics g) {
+            long frameStart = System.nanoTime();
             super.paintComponent(g);
             Graphics2D g2d = (Graphics2D) g;
-            AffineTransform affineTransform = new AffineTransform();
+            AffineTransform screenTransform = g2d.getTransform();
+            AffineTransform affineTransform = viewTransform;
+            affineTransform.setToIdentity();
 
             // When graph is drawn without the following code snippet, it is rotated 270
             // degrees.
@@ -171,75 +383,109 @@ public class App {
                                                                            // graph is
             // rotated 270 degrees
 
-            g2d.setTransform(affineTransform);
+            if (tiles == null) {
+                // Still loading: the roads parsed so far, as thin lines.
+                g2d.setTransform(affineTransform);
+                g2d.setColor(MapRenderer.ROAD_COLOR);
+                g2d.setStroke(PREVIEW_STROKE);
+                for (Path2D.Float roads : preview) {
+                    g2d.draw(roads);
+                }
+                g2d.setTransform(screenTransform);
+                return;
+            }
 
-            for (Node node : nodes) {
-                drawNode(g2d, node);
+            // The map comes from tiles at the nearest zoom level. Until they are all
+            // rendered, the tiles of the last complete level are shown scaled below them.
+            int level = TileCache.levelFor(zoomScale * Math.max(scaleX, scaleY));
+            tiles.setWantedLevel(level);
+            if (fallbackLevel != level && fallbackLevel != Integer.MIN_VALUE) {
+                drawTiles(g2d, affineTransform, fallbackLevel, false);
+            }
+            if (drawTiles(g2d, affineTransform, level, true)) {
+                fallbackLevel = level;
             }
 
-            for (Edge edge : edges) {
-                drawEdge(g2d, edge);
+            g2d.setTransform(affineTransform);
+            screenBounds(affineTransform, view);
+            if (isochroneBands != null) {
+                renderer.drawIsochrone(g2d, view, isochroneBands);
+            }
+            if (route != null) {
+                renderer.drawRoute(g2d, view, route);
             }
 
+            g2d.setTransform(screenTransform);
+            frameMillis = frameMillis == 0 ? (System.nanoTime() - frameStart) / 1e6
+                    : 0.9 * frameMillis + 0.1 * (System.nanoTime() - frameStart) / 1e6;
+            g2d.setColor(MapRenderer.ROUTE_COLOR);
+            g2d.drawString(String.format("%.1f ms", frameMillis), 5, getHeight() - 5);
         }
 
-        private void drawNode(Graphics2D g2d, Node node) {
+        private boolean drawTiles(Graphics2D g2d, AffineTransform affineTransform, int level, boolean request) {
 
             /*
-             * A method to draw Nodes. Changes color and stroke based on whether Dijkstra
-             * was invoked.
+             * Draws the cached tiles of level that are on screen and, if request is set,
+             * asks for the missing ones. Returns whether none were missing.
              */
 
-            int nodeRadius = 5;
-            if (path != null) {
-                if (path.contains(node)) {
-                    g2d.setColor(new Color(0, 0, 0));
-                } else {
-                    g2d.setColor(new Color(245, 245, 245));
-                }
-            } else {
-                g2d.setColor(new Color(245, 245, 245));
+            TileCache.tileToScreen(tileTransform, affineTransform, level);
+            screenBounds(tileTransform, tileBounds);
+            int size = TileCache.TILE_SIZE;
+            int firstX = (int) Math.floor(tileBounds.getMinX() / size);
+            int firstY = (int) Math.floor(tileBounds.getMinY() / size);
+            int lastX = (int) Math.floor(tileBounds.getMaxX() / size);
+            int lastY = (int) Math.floor(tileBounds.getMaxY() / size);
+            if ((long) (lastX - firstX + 1) * (lastY - firstY + 1) > MAX_TILES) {
+                return false;
             }
 
-            int x = (int) ((node.getLatitude() - offsetX) * coordinateMultiplier);
-            int y = (int) ((node.getLongitude() - offsetY) * coordinateMultiplier);
-
-            g2d.fillOval(x - nodeRadius, y - nodeRadius, 2 * nodeRadius, 2 * nodeRadius);
-
+            g2d.setTransform(tileTransform);
+            boolean complete = true;
+            for (int y = firstY; y <= lastY; y++) {
+                for (int x = firstX; x <= lastX; x++) {
+                    BufferedImage tile = tiles.get(level, x, y);
+                    if (tile != null) {
+                        g2d.drawImage(tile, x * size, y * size, null);
+                    } else {
+                        complete = false;
+                        if (request) {
+                            tiles.request(level, x, y);
+                        }
+                    }
+                }
+            }
+            return complete;
         }
 
-        private void drawEdge(Graphics2D g2d, Edge edge) {
+        private void screenBounds(AffineTransform transform, Rectangle2D.Double bounds) {
 
             /*
-             * A method to draw Edges. Changes color and stroke based on whether Dijkstra
-             * was invoked.
+             * Maps the corners of the window back through the transform to find the
+             * part of the map (or tile space) that is on screen. Because of the
+             * rotation any corner can end up as the smallest x or y.
              */
 
-            Node startingNode = edge.getStart();
-            Node endingNode = edge.getEnd();
-
-            if (path != null) {
-                if (path.contains(startingNode) && path.contains(endingNode)) {
-                    g2d.setColor(new Color(0, 0, 0));
-                    g2d.setStroke(new BasicStroke(5));
-                }
-
-                else {
-                    g2d.setColor(new Color(245, 245, 245));
-                    g2d.setStroke(new BasicStroke(2));
-                }
-            } else {
-                g2d.setColor(new Color(245, 245, 245));
-                g2d.setStroke(new BasicStroke(2));
+            corners[0] = 0;
+            corners[1] = 0;
+            corners[2] = getWidth();
+            corners[3] = 0;
+            corners[4] = 0;
+            corners[5] = getHeight();
+            corners[6] = getWidth();
+            corners[7] = getHeight();
+            try {
+                transform.inverseTransform(corners, 0, corners, 0, 4);
+            } catch (NoninvertibleTransformException e) {
+                e.printStackTrace();
+                return;
             }
 
-            int x1 = (int) ((startingNode.getLatitude() - offsetX) * coordinateMultiplier);
-            int y1 = (int) ((startingNode.getLongitude() - offsetY) * coordinateMultiplier);
-            int x2 = (int) ((endingNode.getLatitude() - offsetX) * coordinateMultiplier);
-            int y2 = (int) ((endingNode.getLongitude() - offsetY) * coordinateMultiplier);
-
-            g2d.drawLine(x1, y1, x2, y2);
-
+            double minX = Math.min(Math.min(corners[0], corners[2]), Math.min(corners[4], corners[6]));
+            double maxX = Math.max(Math.max(corners[0], corners[2]), Math.max(corners[4], corners[6]));
+            double minY = Math.min(Math.min(corners[1], corners[3]), Math.min(corners[5], corners[7]));
+            double maxY = Math.max(Math.max(corners[1], corners[3]), Math.max(corners[5], corners[7]));
+            bounds.setFrameFromDiagonal(minX, minY, maxX, maxY);
         }
 
         // ZOOMING METHODS
@@ -320,12 +566,94 @@ public class App {
             repaint();
         }
 
-        /* Unnecessary interface methods */
+        // ROUTING METHODS
 
         @Override
         public void mouseClicked(MouseEvent e) {
+            /*
+             * The first click picks the start and the second the destination, each
+             * snapped to the nearest intersection; the route between them is then
+             * searched on the ROUTING thread. A click while a search is running
+             * cancels it, so only the latest request is ever shown.
+             */
+
+            if (!SwingUtilities.isLeftMouseButton(e) || graph == null) {
+                return;
+            }
+            long clicked = System.nanoTime();
+
+            // The click back through the transform of the last paint, into map coordinates.
+            Point2D point;
+            try {
+                point = viewTransform.inverseTransform(e.getPoint(), null);
+            } catch (NoninvertibleTransformException ex) {
+                ex.printStackTrace();
+                return;
+            }
+            Node node = graph.getNearestNode(renderer.toLatitude(point.getX()), renderer.toLongitude(point.getY()));
+            if (node == null) {
+                return;
+            }
+
+            if (pendingRoute != null) {
+                pendingRoute.cancel(true);
+                pendingRoute = null;
+            }
+            int request = ++routeRequest;
+
+            if (clickStart == null) {
+                clickStart = node;
+                route = new BitSet();
+                route.set(node.getIndex());
+                showStatus("Start " + node.getID() + ", click the destination");
+                repaint();
+                return;
+            }
+
+            Node start = clickStart;
+            clickStart = null;
+            route.set(node.getIndex());
+            repaint();
+            showProgress("Routing from " + start.getID() + " to " + node.getID(), 0, 0);
+            pendingRoute = ROUTING.submit(() -> {
+                RouteResult result;
+                try {
+                    result = graph.getRouteCache().route(clickRouter, algorithm, start.getIndex(), node.getIndex());
+                } catch (CancellationException ex) {
+                    return; // A later click replaced this request.
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                    SwingUtilities.invokeLater(() -> showStatus("Routing failed: " + ex.getMessage()));
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> showRoute(request, start, node, result, clicked));
+            });
+        }
+
+        private void showRoute(int request, Node start, Node end, RouteResult result, long clicked) {
+
+            /* On the event dispatch thread, once a clicked search is done. */
+
+            if (request != routeRequest) {
+                return; // Finished just before a newer click cancelled it.
+            }
+            pendingRoute = null;
+            double millis = (System.nanoTime() - clicked) / 1e6;
+            if (result == null) {
+                showStatus(String.format("No route from %s to %s (%.1f ms)", start.getID(), end.getID(), millis));
+                return;
+            }
+            route = new BitSet();
+            for (int index : result.getPath()) {
+                route.set(index);
+            }
+            showStatus(String.format("%s to %s: %.2f miles through %d intersections, %s in %.1f ms", start.getID(),
+                    end.getID(), result.getDistance(), result.getPath().length, algorithm, millis));
+            repaint();
         }
 
+        /* Unnecessary interface methods */
+
         @Override
         public void mouseEntered(MouseEvent e) {
         }
@@ -0,0 +1,202 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchRouter {
+
+    /*
+     * Runs a file of origin/destination pairs against one loaded graph (--batch).
+     * Every worker thread owns one Router, so search state is reused across all
+     * the queries of that thread, and workers take the next query from a shared
+     * counter. Results are written to the output file as they complete, one line
+     * per query:
+     * line number of the pair in the query file, from id, to id, distance in miles (or "unreachable" /
+     * "unknown"), number of nodes on the route and, with --paths, the route ids.
+     * A summary with throughput and latency percentiles is printed at the end,
+     * with --stats also the search counters averaged over all queries.
+     * Lines that do not hold two ids are reported with their line number and
+     * counted in the summary, but not routed.
+     */
+
+    private final Graph graph;
+    private final String algorithm;
+    private final int threads;
+    private final boolean includePaths;
+    private final boolean collectStats;
+
+    public BatchRouter(Graph graph, String algorithm, int threads, boolean includePaths, boolean collectStats) {
+        this.graph = graph;
+        this.algorithm = algorithm;
+        this.threads = threads;
+        this.includePaths = includePaths;
+        this.collectStats = collectStats;
+    }
+
+    public void run(Path queries, Path output) throws IOException {
+        List<Query> pairs = new ArrayList<>();
+        int malformed = readPairs(queries, pairs);
+        long[] latencies = new long[pairs.size()]; // Nanoseconds per query, -1 when an id is unknown.
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger unreachable = new AtomicInteger();
+
+        // Creating the routers triggers any preprocessing (hierarchy, landmarks) before timing starts.
+        Router[] routers = new Router[threads];
+        SearchStats[] totals = new SearchStats[threads]; // Summed per worker, merged at the end.
+        for (int t = 0; t < threads; t++) {
+            routers[t] = Router.create(graph, algorithm);
+            totals[t] = new SearchStats(algorithm);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+
+        try (BufferedWriter writer = Files.newBufferedWriter(output)) {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Router router = routers[t];
+                SearchStats total = totals[t];
+                workers.add(pool.submit(() -> {
+                    StringBuilder line = new StringBuilder();
+                    int i;
+                    while ((i = next.getAndIncrement()) < pairs.size()) {
+                        line.setLength(0);
+                        if (!answer(router, i, pairs.get(i), line, latencies, total)) {
+                            unreachable.incrementAndGet();
+                        }
+                        synchronized (writer) {
+                            try {
+                                writer.append(line).append('\n');
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (Exception e) {
+            throw new IOException("Batch routing failed", e);
+        } finally {
+            pool.shutdown();
+        }
+
+        long wall = System.nanoTime() - start;
+        printSummary(latencies, unreachable.get(), malformed, wall);
+        if (collectStats) {
+            for (int t = 1; t < threads; t++) {
+                totals[0].add(totals[t]);
+            }
+            System.out.println("Search " + totals[0]);
+        }
+    }
+
+    private boolean answer(Router router, int i, Query pair, StringBuilder line, long[] latencies,
+            SearchStats total) {
+
+        /* Routes one pair and formats its output line. Returns false when there is no route. */
+
+        line.append(pair.line).append('\t').append(pair.from).append('\t').append(pair.to).append('\t');
+
+        Node from = graph.getNodeById(pair.from);
+        Node to = graph.getNodeById(pair.to);
+        if (from == null || to == null) {
+            latencies[i] = -1;
+            line.append("unknown\t0");
+            return true;
+        }
+
+        long start = System.nanoTime();
+        RouteResult result = router.route(from.getIndex(), to.getIndex());
+        latencies[i] = System.nanoTime() - start;
+        if (collectStats && router.getStats() != null) {
+            total.add(router.getStats());
+        }
+
+        if (result == null) {
+            line.append("unreachable\t0");
+            return false;
+        }
+
+        line.append(result.getDistance()).append('\t').append(result.getPath().length);
+        if (includePaths) {
+            line.append('\t');
+            for (int node : result.getPath()) {
+                line.append(graph.getNode(node).getID()).append(' ');
+            }
+            line.setLength(line.length() - 1);
+        }
+        return true;
+    }
+
+    private static int readPairs(Path queries, List<Query> pairs) throws IOException {
+
+        /*
+         * One pair per line, ids separated by whitespace. Blank lines and # comments
+         * are skipped. Returns the number of lines without two ids.
+         */
+
+        List<String> lines = Files.readAllLines(queries);
+        int malformed = 0;
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] ids = line.split("\\s+");
+            if (ids.length >= 2) {
+                pairs.add(new Query(n + 1, ids[0], ids[1]));
+            } else {
+                System.out.println(queries + ":" + (n + 1) + ": expected two ids, skipped: " + line);
+                malformed++;
+            }
+        }
+        return malformed;
+    }
+
+    private void printSummary(long[] latencies, int unreachable, int malformed, long wall) {
+        long[] answered = Arrays.stream(latencies).filter(l -> l >= 0).sorted().toArray();
+        int unknown = latencies.length - answered.length;
+
+        // Pairs with an unknown id are not searched, so they count neither as routed nor for the rate.
+        System.out.printf("Routed %d queries with %s on %d threads in %.3f s (%.0f queries/s)%n",
+                answered.length, algorithm, threads, wall / 1e9, answered.length / (wall / 1e9));
+        System.out.printf("Unreachable: %d, unknown ids: %d, malformed lines: %d%n", unreachable, unknown, malformed);
+        if (answered.length > 0) {
+            System.out.printf("Latency ms: p50 %.3f  p90 %.3f  p99 %.3f  max %.3f%n",
+                    percentile(answered, 0.50), percentile(answered, 0.90),
+                    percentile(answered, 0.99), answered[answered.length - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static class Query {
+
+        /* One pair of the query file. */
+
+        private final int line; // Line number in the query file, counting from 1.
+        private final String from;
+        private final String to;
+
+        Query(int line, String from, String to) {
+            this.line = line;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class Benchmark {
+
+    /*
+     * Small timing harness for the parts of the program we try to make faster.
+     * Usage:
+     * java Benchmark load <textfile> [runs]   sequential reader against parallel parser
+     * java Benchmark grid [runs]              new Graph(file) on generated grids of growing size
+     * java Benchmark route <file> [runs] [algorithm]   fixed short, medium and long queries
+     * java Benchmark haversine [runs]         Edge.haversine throughput
+     * java Benchmark paint <file> [runs]      offscreen map drawing, whole map and zoomed in
+     * java Benchmark memory <file>           heap held by Graph against CompactGraph (--offheap)
+     * java Benchmark all [runs]               everything above except load, on a generated grid
+     * Every variant is warmed up first, then timed; the best and median of the
+     * runs are printed with the bytes allocated per run. Allocation is counted
+     * over all live threads, so work done on pool threads (the parallel parser,
+     * tile workers) is included.
+     * The same cases also run under JMH, see the jmh directory.
+     */
+
+    private static final long SEED = 42; // Same queries and grids on every run.
+    private static final int QUERIES = 50; // Queries per distance class in the route benchmark.
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true"); // paint only draws into images.
+        String mode = args[0];
+        boolean hasFile = mode.equals("load") || mode.equals("route") || mode.equals("paint")
+                || mode.equals("memory");
+        int runsArgument = hasFile ? 2 : 1;
+        int runs = args.length > runsArgument ? Integer.parseInt(args[runsArgument]) : 10;
+
+        switch (mode) {
+            case "load":
+                load(Paths.get(args[1]), runs);
+                break;
+            case "grid":
+                grid(runs);
+                break;
+            case "route":
+                route(new Graph(args[1]), runs, args.length > 3 ? args[3] : "dijkstra");
+                break;
+            case "haversine":
+                haversine(runs);
+                break;
+            case "paint":
+                paint(new Graph(args[1]), runs);
+                break;
+            case "memory":
+                memory(args[1]);
+                break;
+            case "all":
+                grid(runs);
+                haversine(runs);
+                Graph graph = new Graph(generated(300).toString());
+                route(graph, runs, "dijkstra");
+                paint(graph, runs);
+                break;
+            default:
+                System.out.println("Unknown benchmark " + mode);
+                break;
+        }
+    }
+
+    private static void load(Path path, int runs) throws IOException {
+
+        /* Compares the original single threaded reader with the parallel parser. */
+
+        time("sequential reader", runs, () -> {
+            Map<String, Node> nodes = new LinkedHashMap<>();
+            List<Edge> edges = new ArrayList<>();
+            GraphParser.parseSequential(path, nodes, edges);
+            return nodes.size() + edges.size();
+        });
+        time("parallel parser", runs, () -> {
+            Map<String, Node> nodes = new LinkedHashMap<>();
+            List<Edge> edges = new ArrayList<>();
+            GraphParser.parse(path, nodes, edges);
+            return nodes.size() + edges.size();
+        });
+    }
+
+    private static void grid(int runs) throws IOException {
+
+        /* Loading through the Graph constructor, as the program does, on 10k to 1M intersections. */
+
+        for (int size : new int[] { 100, 300, 1000 }) {
+            time("load grid " + size + "x" + size, runs, loadTask(generated(size).toString()));
+        }
+    }
+
+    static Task loadTask(String file) {
+        return () -> {
+            Graph graph = new Graph(file);
+            return graph.getNodeCount() + graph.getEdges().size();
+        };
+    }
+
+    private static void route(Graph graph, int runs, String algorithm) throws IOException {
+        String[] names = { "short", "medium", "long" };
+        for (int c = 0; c < names.length; c++) {
+            time(algorithm + " " + names[c] + " x" + QUERIES, runs, routeTask(graph, algorithm, c));
+        }
+    }
+
+    static Task routeTask(Graph graph, String algorithm, int distanceClass) {
+
+        /*
+         * Random pairs sorted by straight-line distance: the shortest tenth are the
+         * short queries (distanceClass 0), the middle tenth the medium ones (1) and
+         * the longest tenth the long ones (2). The task answers all QUERIES queries
+         * of the class.
+         */
+
+        Random random = new Random(SEED);
+        int n = graph.getNodeCount();
+        int candidates = 10 * QUERIES;
+        long[][] pairs = new long[candidates][];
+        for (int i = 0; i < candidates; i++) {
+            Node from = graph.getNode(random.nextInt(n));
+            Node to = graph.getNode(random.nextInt(n));
+            double miles = Edge.haversine(from.getLatitude(), from.getLongitude(), to.getLatitude(),
+                    to.getLongitude());
+            pairs[i] = new long[] { Double.doubleToLongBits(miles), from.getIndex(), to.getIndex() };
+        }
+        Arrays.sort(pairs, (a, b) -> Double.compare(Double.longBitsToDouble(a[0]), Double.longBitsToDouble(b[0])));
+
+        Router router = Router.create(graph, algorithm);
+        int[] firsts = { 0, (candidates - QUERIES) / 2, candidates - QUERIES };
+        long[][] queries = Arrays.copyOfRange(pairs, firsts[distanceClass], firsts[distanceClass] + QUERIES);
+        return () -> {
+            long nodes = 0;
+            for (long[] query : queries) {
+                RouteResult result = router.route((int) query[1], (int) query[2]);
+                nodes += result == null ? 0 : result.getPath().length;
+            }
+            return nodes;
+        };
+    }
+
+    private static void haversine(int runs) throws IOException {
+
+        /* One million distances between coordinates around Rochester per run. */
+
+        int count = 1000000;
+        double[] coordinates = new double[4 * 1024];
+        Random random = new Random(SEED);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            coordinates[i] = 43.0 + random.nextDouble() * 0.2;
+            coordinates[i + 1] = -77.8 + random.nextDouble() * 0.2;
+        }
+        time("haversine x" + count, runs, () -> {
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                int j = (4 * i) & (coordinates.length - 1);
+                sum += Edge.haversine(coordinates[j], coordinates[j + 1], coordinates[j + 2], coordinates[j + 3]);
+            }
+            return (long) sum;
+        });
+    }
+
+    private static void paint(Graph graph, int runs) throws IOException {
+        MapRenderer renderer = new MapRenderer(graph);
+        for (int zoom : new int[] { 1, 16 }) {
+            time("paint zoom " + zoom, runs, paintTask(graph, renderer, zoom));
+        }
+    }
+
+    static Task paintTask(Graph graph, MapRenderer renderer, int zoom) {
+
+        /*
+         * What DrawingPanel's tiles do, without a window: the whole map into a
+         * 1024x768 image (zoom 1), or a view zoomed in on its centre.
+         */
+
+        BufferedImage image = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < graph.getNodeCount(); i++) {
+            minX = Math.min(minX, renderer.getX(i));
+            minY = Math.min(minY, renderer.getY(i));
+            maxX = Math.max(maxX, renderer.getX(i));
+            maxY = Math.max(maxY, renderer.getY(i));
+        }
+        double fit = Math.min(image.getWidth() / (maxY - minY), image.getHeight() / (maxX - minX));
+
+        double scale = fit * zoom;
+        AffineTransform transform = new AffineTransform();
+        transform.translate(image.getWidth() / 2.0, image.getHeight() / 2.0);
+        transform.rotate(3 * Math.PI / 2);
+        transform.scale(scale, scale);
+        transform.translate(-(minX + maxX) / 2, -(minY + maxY) / 2);
+        double halfX = image.getHeight() / scale / 2; // Map x runs up the image, map y across it.
+        double halfY = image.getWidth() / scale / 2;
+        Rectangle2D view = new Rectangle2D.Double((minX + maxX) / 2 - halfX, (minY + maxY) / 2 - halfY,
+                2 * halfX, 2 * halfY);
+
+        return () -> {
+            Graphics2D g2d = image.createGraphics();
+            g2d.setColor(MapRenderer.BACKGROUND_COLOR);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.setTransform(transform);
+            renderer.drawMap(g2d, view, scale);
+            g2d.dispose();
+            return image.getRGB(image.getWidth() / 2, image.getHeight() / 2);
+        };
+    }
+
+    private static void memory(String file) throws IOException {
+
+        /*
+         * Heap in use after a full collection with each storage backend loaded,
+         * minus the heap in use before, and the direct buffers of CompactGraph.
+         */
+
+        long before = usedHeap();
+        Graph graph = new Graph(file);
+        long graphHeap = usedHeap() - before;
+        System.out.printf("%-24s heap %10.1f MB   (%d intersections)%n", "Graph", graphHeap / 1048576.0,
+                graph.getNodeCount());
+        graph = null;
+
+        before = usedHeap();
+        CompactGraph compact = new CompactGraph(file);
+        long compactHeap = usedHeap() - before;
+        System.out.printf("%-24s heap %10.1f MB   off-heap %10.1f MB   (%d intersections)%n", "CompactGraph",
+                compactHeap / 1048576.0, compact.getOffHeapBytes() / 1048576.0, compact.getNodeCount());
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static Path generated(int size) throws IOException {
+
+        /* A size x size grid from GraphGenerator, written once to the temporary directory. */
+
+        Path file = Paths.get(System.getProperty("java.io.tmpdir"), "benchmark-grid-" + size + ".txt");
+        if (!Files.exists(file)) {
+            GraphGenerator.writeGrid(file.toString(), size, size, SEED);
+        }
+        return file;
+    }
+
+    interface Task {
+        long run() throws IOException;
+    }
+
+    private static void time(String name, int runs, Task task) throws IOException {
+        long checksum = 0;
+        for (int i = 0; i < Math.max(1, runs / 2); i++) {
+            checksum += task.run();
+        }
+
+        double[] millis = new double[runs];
+        long allocated = allocatedBytes();
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            checksum += task.run();
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        allocated = allocatedBytes() - allocated;
+        Arrays.sort(millis);
+
+        System.out.printf("%-24s best %9.3f ms   median %9.3f ms   alloc %10.1f KB/run   (checksum %d)%n",
+                name, millis[0], millis[runs / 2], allocated / 1024.0 / runs, checksum);
+    }
+
+    private static long allocatedBytes() {
+
+        /* Bytes allocated so far by all live threads, from the HotSpot thread bean. */
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
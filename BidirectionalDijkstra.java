@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+public class BidirectionalDijkstra implements Router {
+
+    /*
+     * Dijkstra from both ends at once. The graph is undirected, so the backward
+     * search from the destination uses the same adjacency as the forward one.
+     * Each step expands the frontier whose queue has the smaller top key, and the
+     * search stops once the two top keys together reach the best meeting distance
+     * found so far: no route through an unsettled node can be shorter than that.
+     * On long routes each side only explores about half the radius.
+     * Not thread safe: create one instance per routing thread.
+     */
+
+    private final Graph graph;
+    private final SearchState forward;
+    private final SearchState backward;
+    private final SearchStats stats;
+    private long relaxed; // Roads looked at by the current query, for stats.
+
+    public BidirectionalDijkstra(Graph graph) {
+        this.graph = graph;
+        this.forward = new SearchState(graph.getNodeCount());
+        this.backward = new SearchState(graph.getNodeCount());
+        this.stats = new SearchStats("bidirectional");
+    }
+
+    @Override
+    public RouteResult route(int source, int target) {
+        stats.begin(source, target, forward.getHeap(), backward.getHeap());
+        relaxed = 0;
+        RouteResult result = search(source, target);
+        stats.end(result, relaxed, forward.getHeap(), backward.getHeap());
+        return result;
+    }
+
+    @Override
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    private RouteResult search(int source, int target) {
+        Adjacency adjacency = graph.getAdjacency(); // Read once: the version this query sees.
+        if (!adjacency.getComponents().connected(source, target)) {
+            return null; // Different components, so there is nothing to search.
+        }
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+        double[] weights = adjacency.getWeights();
+        IndexedHeap forwardHeap = forward.getHeap();
+        IndexedHeap backwardHeap = backward.getHeap();
+
+        forward.reset();
+        backward.reset();
+        forward.update(source, 0.0, -1);
+        forwardHeap.push(source, 0.0);
+        backward.update(target, 0.0, -1);
+        backwardHeap.push(target, 0.0);
+
+        double best = source == target ? 0.0 : Double.POSITIVE_INFINITY; // Shortest route through a meeting node.
+        int meet = source == target ? source : -1;
+
+        while (!forwardHeap.isEmpty() && !backwardHeap.isEmpty()) {
+            if (forwardHeap.peekKey() + backwardHeap.peekKey() >= best) {
+                break;
+            }
+
+            boolean forwardStep = forwardHeap.peekKey() <= backwardHeap.peekKey();
+            SearchState self = forwardStep ? forward : backward;
+            SearchState other = forwardStep ? backward : forward;
+            IndexedHeap heap = self.getHeap();
+
+            int curr = heap.poll();
+            if ((heap.getPolls() & (Router.CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                Router.checkCancelled();
+            }
+            double currDistance = self.getDistance(curr);
+
+            relaxed += offsets[curr + 1] - offsets[curr];
+            for (int slot = offsets[curr]; slot < offsets[curr + 1]; slot++) {
+                int neighbor = targets[slot];
+                double alt = currDistance + weights[slot];
+
+                if (alt < self.getDistance(neighbor)) {
+                    self.update(neighbor, alt, curr);
+                    heap.pushOrDecrease(neighbor, alt);
+                }
+
+                // The other side has already been here: the two halves form a route.
+                if (other.isReached(neighbor) && alt + other.getDistance(neighbor) < best) {
+                    best = alt + other.getDistance(neighbor);
+                    meet = neighbor;
+                }
+            }
+        }
+
+        if (meet == -1) {
+            return null;
+        }
+        return new RouteResult(best, splice(meet));
+    }
+
+    private int[] splice(int meet) {
+
+        /*
+         * Joins the forward parent chain (source to meet) with the backward parent
+         * chain (meet to target) into one route.
+         */
+
+        int[] head = forward.pathTo(meet);
+        int tailLength = 0;
+        for (int node = backward.getParent(meet); node != -1; node = backward.getParent(node)) {
+            tailLength++;
+        }
+
+        int[] path = Arrays.copyOf(head, head.length + tailLength);
+        int i = head.length;
+        for (int node = backward.getParent(meet); node != -1; node = backward.getParent(node)) {
+            path[i++] = node;
+        }
+        return path;
+    }
+}
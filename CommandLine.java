@@ -1,6 +1,14 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import javax.swing.SwingUtilities;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 public class CommandLine {
 
@@ -9,42 +17,381 @@ public class CommandLine {
     public static void UserInteraction(String[] args) throws IOException {
         /*
          * This method is responsible for interacting with the user in the terminal.
-         * If Dijkstra's algorithm is to be run, then it might take some time before
-         * GUI is shown.
+         * With --show the window opens first; the graph is loaded and the route is
+         * computed on this thread meanwhile, and both appear in the window when ready.
+         * The first argument is either a textfile or a snapshot written by
+         * --compile <output>, which loads much faster.
          */
 
         boolean show = false;
         boolean directions = false;
+        double[] latlon = null;
+        String compileTo = null;
+        String updates = null;
+        String algorithm = "dijkstra";
+        String batch = null;
+        String output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean includePaths = false;
+        boolean stats = false;
+        boolean components = false;
+        boolean offHeap = false;
+        String matrixSources = null;
+        String matrixTargets = null;
+        String renderTo = null;
+        int renderWidth = 2048;
+        int renderHeight = 2048;
+        double[] bbox = null;
+        int servePort = -1;
+        double isochroneMiles = -1;
+        String isochroneFrom = null;
+        IsochroneResult isochrone = null;
         List<Node> path = null;
 
         int d = 0;
 
-        for (int i = 0; i < args.length; i++) {
+        for (int i = 1; i < args.length; i++) {
             String input = args[i];
             if (input.contains("--show")) {
                 show = true;
+            } else if (input.contains("--directions-latlon")) {
+                latlon = new double[4];
+                for (int k = 0; k < 4; k++) {
+                    latlon[k] = Double.parseDouble(args[++i]); // start latitude, longitude, end latitude, longitude
+                }
             } else if (input.contains("--directions")) {
                 directions = true;
                 d = i;
+                i += 2; // Skip the start and end ids.
+            } else if (input.contains("--updates")) {
+                updates = args[++i]; // Road closures and weight changes, see RoadUpdates.
+            } else if (input.contains("--compile")) {
+                compileTo = args[++i];
+            } else if (input.contains("--algo")) {
+                algorithm = args[++i]; // dijkstra, astar, alt, bidirectional or ch
+            } else if (input.contains("--batch")) {
+                batch = args[++i];
+            } else if (input.contains("--out")) {
+                output = args[++i];
+            } else if (input.contains("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (input.contains("--paths")) {
+                includePaths = true;
+            } else if (input.contains("--stats")) {
+                stats = true; // Search counters for --directions and --batch.
+            } else if (input.contains("--components")) {
+                components = true; // Report how the map falls apart into unconnected pieces.
+            } else if (input.contains("--offheap")) {
+                offHeap = true; // Large maps: load into a CompactGraph, only --directions is supported.
+            } else if (input.contains("--isochrone")) {
+                isochroneMiles = Double.parseDouble(args[++i]);
+                isochroneFrom = args[++i]; // One or more ids, separated by commas.
+            } else if (input.contains("--matrix")) {
+                matrixSources = args[++i];
+                matrixTargets = args[++i];
+            } else if (input.contains("--serve")) {
+                servePort = Integer.parseInt(args[++i]);
+            } else if (input.contains("--render")) {
+                renderTo = args[++i];
+            } else if (input.contains("--size")) {
+                String size = args[++i].toLowerCase(); // For example 4096x4096.
+                if (!size.matches("[1-9][0-9]{0,5}x[1-9][0-9]{0,5}")) {
+                    System.out.println("Usage: --size <width>x<height> in pixels, for example 4096x4096, not " + size);
+                    return;
+                }
+                renderWidth = Integer.parseInt(size.substring(0, size.indexOf('x')));
+                renderHeight = Integer.parseInt(size.substring(size.indexOf('x') + 1));
+                if ((long) renderWidth * renderHeight > MapExporter.MAX_PIXELS) {
+                    System.out.println("--size " + size + " is too large, at most " + MapExporter.MAX_PIXELS
+                            + " pixels can be rendered");
+                    return;
+                }
+            } else if (input.contains("--bbox")) {
+                bbox = new double[4];
+                for (int k = 0; k < 4; k++) {
+                    bbox[k] = Double.parseDouble(args[++i]); // smallest latitude, longitude, largest latitude, longitude
+                }
             }
+        }
+
+        if (threads < 1) {
+            System.out.println("--threads needs at least 1 thread, not " + threads);
+            return;
+        }
+        if (renderTo != null && !show) {
+            // Rendering works without a display as long as no window is opened.
+            System.setProperty("java.awt.headless", "true");
+        }
+        if (offHeap) {
+            // The off-heap store only answers --directions with Dijkstra; refuse the rest instead of ignoring it.
+            List<String> unsupported = new ArrayList<>();
+            String[] flags = { "--show", "--directions-latlon", "--compile", "--updates", "--batch", "--paths",
+                    "--components", "--isochrone", "--matrix", "--serve", "--render" };
+            boolean[] used = { show, latlon != null, compileTo != null, updates != null, batch != null, includePaths,
+                    components, isochroneFrom != null, matrixSources != null, servePort >= 0, renderTo != null };
+            for (int k = 0; k < flags.length; k++) {
+                if (used[k]) {
+                    unsupported.add(flags[k]);
+                }
+            }
+            if (!algorithm.equals("dijkstra")) {
+                unsupported.add("--algo " + algorithm);
+            }
+            if (!unsupported.isEmpty()) {
+                System.out.println("--offheap only supports --directions and --stats, not "
+                        + String.join(", ", unsupported));
+                return;
+            }
+            offHeapDirections(args[0], directions ? args[d + 1] : null, directions ? args[d + 2] : null, stats);
+            return;
+        }
+
+        App app = null;
+        if (show) {
+            // The window opens right away and shows the roads while this thread loads them.
+            app = new App("config.properties", args[0]);
+            SwingUtilities.invokeLater(app::createAndShowGUI);
+        }
+
+        Graph graph;
+        try {
+            graph = new Graph(args[0], app != null ? app.getLoadListener() : null);
+        } catch (CancellationException e) {
+            System.out.println("Loading of " + args[0] + " cancelled");
+            app.showStatus("Loading cancelled");
+            return;
+        }
+        graph.setPrintStats(stats);
+
+        if (compileTo != null) {
+            GraphSnapshot.write(graph, Paths.get(compileTo));
+            System.out.println("Wrote snapshot of " + graph.getFileName() + " to " + compileTo);
+        }
 
-            if (i > 2) {
-                break;
+        if (updates != null) {
+            // --updates <file>: applied after --compile, so a snapshot always holds the roads as loaded.
+            try {
+                RoadUpdates roadUpdates = RoadUpdates.read(Paths.get(updates));
+                graph.update(roadUpdates);
+                System.out.println("Applied " + roadUpdates.size() + " road updates from " + updates);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Road updates in " + updates + " not applied: " + e.getMessage());
             }
         }
-        Graph graph = new Graph(args[0]);
+
+        if (app != null) {
+            app.finishLoading();
+            if (app.isCancelled()) {
+                // Pressed after the last chunk was read, before the button went away.
+                System.out.println("Loading of " + args[0] + " cancelled");
+                app.showStatus("Loading cancelled");
+                return;
+            }
+            app.showProgress("Preparing map", 0, 0);
+            app.setGraph(graph, algorithm);
+            app.showProgress("Working", 0, 0);
+        }
+
+        if (components) {
+            componentReport(graph);
+        }
+
+        if (batch != null) {
+            // --batch <queries> [--out <results>] [--threads <n>] [--paths]: one pair of ids per line.
+            Path results = Paths.get(output != null ? output : batch + ".out");
+            new BatchRouter(graph, algorithm, threads, includePaths, stats).run(Paths.get(batch), results);
+            System.out.println("Results written to " + results);
+        }
+
+        if (matrixSources != null) {
+            // --matrix <sources> <targets> [--out <file>]: a .bin output is written as a memory-mapped matrix.
+            matrix(graph, matrixSources, matrixTargets, output != null ? output : matrixSources + ".matrix");
+        }
+
+        if (servePort >= 0) {
+            // --serve <port> [--algo X] [--threads n]: keeps running until the process is stopped.
+            new RoutingServer(graph, algorithm, threads).start(servePort);
+            System.out.println("Serving " + graph.getFileName() + " with " + algorithm + " on http://localhost:"
+                    + servePort + "/route?from=&to=, /nearest?lat=&lon= and /health");
+        }
+
+        if (app != null && (directions || latlon != null)) {
+            app.showProgress("Computing route", 0, 0);
+        }
 
         if (directions) {
             Node start = graph.getNodeById(args[d + 1]);
             Node end = graph.getNodeById(args[d + 2]);
-            path = graph.dijkstra(graph, start, end);
+            if (start == null || end == null) {
+                System.out.println("Unknown intersection id " + (start == null ? args[d + 1] : args[d + 2]));
+            } else {
+                path = graph.route(start, end, algorithm);
+            }
         }
 
-        if (show) {
-            App app = new App("config.properties", graph, path);
-            SwingUtilities.invokeLater(app::createAndShowGUI);
+        if (latlon != null) {
+            // --directions-latlon snaps both points to the nearest intersection first.
+            Node start = graph.getNearestNode(latlon[0], latlon[1]);
+            Node end = graph.getNearestNode(latlon[2], latlon[3]);
+            if (start == null || end == null) {
+                System.out.println("The map has no intersections to snap to");
+            } else {
+                System.out.println("Snapped to " + start.getID() + " and " + end.getID());
+                path = graph.route(start, end, algorithm);
+            }
+        }
+
+        if (isochroneFrom != null) {
+            // --isochrone <miles> <id,id,...> [--out <file>]: drawn in distance bands with --show.
+            isochrone = isochrone(graph, isochroneMiles, isochroneFrom.split(","), output);
+        }
+
+        if (renderTo != null) {
+            // --render <image> [--size WxH] [--bbox ...]: the route from --directions is drawn on top.
+            long start = System.nanoTime();
+            MapExporter exporter = new MapExporter(graph);
+            BufferedImage image = exporter.render(renderWidth, renderHeight, bbox, path, threads);
+            double drawn = (System.nanoTime() - start) / 1e9;
+            MapExporter.write(image, Paths.get(renderTo));
+            System.out.printf("Rendered %dx%d map in %.3f s, written to %s in %.3f s%n", renderWidth, renderHeight,
+                    drawn, renderTo, (System.nanoTime() - start) / 1e9 - drawn);
+        }
+
+        if (app != null) {
+            app.setRoute(path);
+            app.setIsochrone(isochrone);
+            app.showStatus(graph.getNodeCount() + " intersections, " + graph.getEdges().size() + " roads"
+                    + (path != null ? ", route through " + path.size() + " intersections" : ""));
+        }
+
+    }
+
+    private static void offHeapDirections(String fileName, String from, String to, boolean stats)
+            throws IOException {
+
+        /* --offheap: the map is kept in direct buffers, see CompactGraph. */
+
+        long start = System.nanoTime();
+        CompactGraph graph = new CompactGraph(fileName);
+        System.out.printf("Loaded %d intersections and %d roads into %.1f MB off-heap in %.3f s%n",
+                graph.getNodeCount(), graph.getEdgeCount(), graph.getOffHeapBytes() / 1048576.0,
+                (System.nanoTime() - start) / 1e9);
+        if (from == null) {
+            return;
+        }
+
+        int source = graph.indexOf(from);
+        int target = graph.indexOf(to);
+        if (source == -1 || target == -1) {
+            System.out.println("Unknown intersection id " + (source == -1 ? from : to));
+            return;
+        }
+        Router router = new CompactDijkstra(graph);
+        RouteResult result = router.route(source, target);
+        if (stats) {
+            System.out.println("Search " + router.getStats());
+        }
+        if (result == null) {
+            System.out.println("No path found from " + from + " to " + to);
+            return;
+        }
+        for (int index : result.getPath()) {
+            System.out.print(graph.getNodeId(index) + " ");
+        }
+        System.out.println("Distance travelled: " + result.getDistance() + " miles");
+    }
+
+    private static IsochroneResult isochrone(Graph graph, double miles, String[] ids, String output)
+            throws IOException {
+
+        /* Everything within miles of the given intersections; unknown ids are reported and left out. */
+
+        List<String> known = knownIds(graph, Arrays.asList(ids));
+        if (known.isEmpty()) {
+            return null;
+        }
+        int[] sources = known.stream().mapToInt(id -> graph.getNodeById(id).getIndex()).toArray();
+
+        long start = System.nanoTime();
+        IsochroneResult result = new Isochrone(graph).compute(sources, miles);
+        System.out.printf("%d intersections within %s miles of %s, found in %.3f ms%n", result.size(), miles,
+                String.join(", ", known), (System.nanoTime() - start) / 1e6);
+
+        if (output != null) {
+            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(output))) {
+                for (int i = 0; i < result.size(); i++) {
+                    writer.write(graph.getNode(result.getNodes()[i]).getID() + "\t" + result.getDistances()[i]);
+                    writer.newLine();
+                }
+            }
+            System.out.println("Isochrone written to " + output);
+        }
+        return result;
+    }
+
+    private static void componentReport(Graph graph) {
+
+        /*
+         * --components: the summary, then the ten largest pieces after the main one
+         * with one intersection in each, so they can be found in the textfile.
+         */
+
+        Components components = graph.getComponents();
+        System.out.println(components);
+
+        int[] sizes = components.getSizes();
+        Integer[] order = new Integer[sizes.length];
+        for (int c = 0; c < order.length; c++) {
+            order[c] = c;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(sizes[b], sizes[a]));
+
+        int[] example = new int[sizes.length]; // The first intersection of every component.
+        Arrays.fill(example, -1);
+        for (int i = 0; i < graph.getNodeCount(); i++) {
+            int c = components.getComponent(i);
+            if (example[c] == -1) {
+                example[c] = i;
+            }
         }
+        for (int k = 1; k < Math.min(order.length, 11); k++) {
+            System.out.println("  " + sizes[order[k]] + " intersections, for example "
+                    + graph.getNode(example[order[k]]).getID());
+        }
+    }
+
+    private static void matrix(Graph graph, String sourcesFile, String targetsFile, String output)
+            throws IOException {
+
+        /* Distance matrix between two lists of ids. Unknown ids are reported and left out. */
+
+        List<String> sourceIds = knownIds(graph, DistanceMatrix.readIds(Paths.get(sourcesFile)));
+        List<String> targetIds = knownIds(graph, DistanceMatrix.readIds(Paths.get(targetsFile)));
+        int[] sources = sourceIds.stream().mapToInt(id -> graph.getNodeById(id).getIndex()).toArray();
+        int[] targets = targetIds.stream().mapToInt(id -> graph.getNodeById(id).getIndex()).toArray();
 
+        DistanceMatrix matrix = new DistanceMatrix(graph);
+        long start = System.nanoTime();
+        if (output.endsWith(".bin")) {
+            matrix.computeToFile(sources, targets, Paths.get(output));
+        } else {
+            DistanceMatrix.writeText(matrix.compute(sources, targets), sourceIds, targetIds, Paths.get(output));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Computed %d x %d distance matrix in %.3f s (%.0f cells/s), written to %s%n",
+                sources.length, targets.length, seconds, sources.length * (double) targets.length / seconds, output);
+    }
+
+    private static List<String> knownIds(Graph graph, List<String> ids) {
+        List<String> known = new ArrayList<>();
+        for (String id : ids) {
+            if (graph.getNodeById(id) != null) {
+                known.add(id);
+            } else {
+                System.out.println("Unknown intersection id " + id + ", skipped");
+            }
+        }
+        return known;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,68 @@
+public class CompactDijkstra implements Router {
+
+    /*
+     * Dijkstra over a CompactGraph, reading the adjacency straight from its
+     * direct buffers. Otherwise the same as Dijkstra: the search state is sized
+     * to the graph once and reused, so a query allocates nothing but its result.
+     * Not thread safe: create one instance per routing thread.
+     */
+
+    private final CompactGraph graph;
+    private final SearchState state;
+    private final SearchStats stats;
+    private long relaxed; // Roads looked at by the current query, for stats.
+
+    public CompactDijkstra(CompactGraph graph) {
+        this.graph = graph;
+        this.state = new SearchState(graph.getNodeCount());
+        this.stats = new SearchStats("dijkstra-offheap");
+    }
+
+    @Override
+    public RouteResult route(int source, int target) {
+        stats.begin(source, target, state.getHeap(), null);
+        relaxed = 0;
+        RouteResult result = search(source, target);
+        stats.end(result, relaxed, state.getHeap(), null);
+        return result;
+    }
+
+    @Override
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    private RouteResult search(int source, int target) {
+        IndexedHeap heap = state.getHeap();
+
+        state.reset();
+        state.update(source, 0.0, -1);
+        heap.push(source, 0.0);
+
+        while (!heap.isEmpty()) {
+            int curr = heap.poll();
+            if ((heap.getPolls() & (Router.CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                Router.checkCancelled();
+            }
+
+            if (curr == target) {
+                return new RouteResult(state.getDistance(target), state.pathTo(target));
+            }
+
+            double currDistance = state.getDistance(curr);
+            int first = graph.getFirstSlot(curr);
+            int last = graph.getFirstSlot(curr + 1);
+            relaxed += last - first;
+            for (int slot = first; slot < last; slot++) {
+                int neighbor = graph.getTarget(slot);
+                double alt = currDistance + graph.getWeight(slot);
+                if (alt < state.getDistance(neighbor)) {
+                    state.update(neighbor, alt, curr);
+                    heap.pushOrDecrease(neighbor, alt);
+                }
+            }
+        }
+
+        return null;
+    }
+}
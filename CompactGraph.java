@@ -0,0 +1,302 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CompactGraph {
+
+    /*
+     * Storage backend for maps too large for the object based Graph (--offheap).
+     * Graph keeps a Node per intersection and an Edge per road, each with its own
+     * String id, in hash maps and lists; on a large map that is several times
+     * the size of the data itself and every garbage collection has to walk it.
+     *
+     * Here everything lives in direct buffers outside the Java heap, as a
+     * structure of arrays: latitudes and longitudes by node index, start, end
+     * and weight by road index, the same CSR adjacency as Adjacency (offsets,
+     * targets, weights, road indices), and the ids in two IdDictionary's. The
+     * heap only holds a few buffer objects however large the map is. A Node or
+     * Edge is created on demand as a view when a caller asks for one, with the
+     * same index as in the buffers.
+     *
+     * Node and road indices follow the order of the textfile, the same as in
+     * Graph, so a CompactGraph and a Graph of the same file agree on them.
+     * Direct buffers are limited to 2 GB each. The slot weights take 16 bytes per
+     * road, so that is about 134 million roads.
+     */
+
+    private final String fileName;
+    private final IdDictionary nodeIds = new IdDictionary();
+    private final IdDictionary edgeIds = new IdDictionary();
+    private ByteBuffer latitudes = allocate(8 * 1024); // double per node.
+    private ByteBuffer longitudes = allocate(8 * 1024);
+    private ByteBuffer edgeStarts = allocate(4 * 1024); // int node index per road.
+    private ByteBuffer edgeEnds = allocate(4 * 1024);
+    private ByteBuffer edgeWeights = allocate(8 * 1024); // double miles per road.
+    private ByteBuffer offsets; // CSR, see Adjacency: int per node, plus one.
+    private ByteBuffer targets; // int node index per slot, two slots per road.
+    private ByteBuffer slotWeights; // double per slot.
+    private ByteBuffer slotEdges; // int road index per slot.
+    private int nodeCount;
+    private int edgeCount;
+
+    public CompactGraph(String fileName) throws IOException {
+
+        /*
+         * Reads the textfile twice, intersections first and roads second, so like
+         * GraphParser.parse() a road is kept whenever both of its ends exist
+         * anywhere in the file. Lines are parsed one at a time and go straight into
+         * the buffers; nothing per node stays on the heap.
+         */
+
+        this.fileName = fileName;
+        Path path = Path.of(fileName);
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = trimEnd(line);
+                if (line.startsWith("i")) {
+                    int tab1 = line.indexOf('\t');
+                    int tab2 = line.indexOf('\t', tab1 + 1);
+                    int tab3 = line.indexOf('\t', tab2 + 1);
+                    String id = line.substring(tab1 + 1, tab2);
+                    double latitude = Double.parseDouble(line.substring(tab2 + 1, tab3));
+                    double longitude = Double.parseDouble(line.substring(tab3 + 1));
+
+                    int index = nodeIds.indexOf(id);
+                    if (index == -1) {
+                        index = nodeIds.add(id);
+                        nodeCount++;
+                        latitudes = ensure(latitudes, 8L * nodeCount);
+                        longitudes = ensure(longitudes, 8L * nodeCount);
+                    }
+                    // A repeated id moves the intersection, like putting it into Graph's map again.
+                    latitudes.putDouble(offset(index, 8), latitude);
+                    longitudes.putDouble(offset(index, 8), longitude);
+                }
+            }
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = trimEnd(line);
+                if (line.startsWith("r")) {
+                    int tab1 = line.indexOf('\t');
+                    int tab2 = line.indexOf('\t', tab1 + 1);
+                    int tab3 = line.indexOf('\t', tab2 + 1);
+                    int start = nodeIds.indexOf(line.substring(tab2 + 1, tab3));
+                    int end = nodeIds.indexOf(line.substring(tab3 + 1));
+                    if (start == -1 || end == -1) {
+                        continue;
+                    }
+
+                    edgeIds.add(line.substring(tab1 + 1, tab2));
+                    int e = edgeCount++;
+                    edgeStarts = ensure(edgeStarts, 4L * edgeCount);
+                    edgeEnds = ensure(edgeEnds, 4L * edgeCount);
+                    edgeWeights = ensure(edgeWeights, 8L * edgeCount);
+                    edgeStarts.putInt(offset(e, 4), start);
+                    edgeEnds.putInt(offset(e, 4), end);
+                    edgeWeights.putDouble(offset(e, 8), Edge.haversine(getLatitude(start), getLongitude(start),
+                            getLatitude(end), getLongitude(end)));
+                }
+            }
+        }
+
+        latitudes = copy(latitudes, 8L * nodeCount);
+        longitudes = copy(longitudes, 8L * nodeCount);
+        edgeStarts = copy(edgeStarts, 4L * edgeCount);
+        edgeEnds = copy(edgeEnds, 4L * edgeCount);
+        edgeWeights = copy(edgeWeights, 8L * edgeCount);
+        nodeIds.trim();
+        edgeIds.trim();
+        buildAdjacency();
+    }
+
+    private void buildAdjacency() {
+
+        /* The same counting sort as Adjacency.build(), into buffers. */
+
+        offsets = allocate(4L * (nodeCount + 1));
+        for (int e = 0; e < edgeCount; e++) {
+            increment(offsets, edgeStarts.getInt(offset(e, 4)) + 1);
+            increment(offsets, edgeEnds.getInt(offset(e, 4)) + 1);
+        }
+        for (int u = 0; u < nodeCount; u++) {
+            offsets.putInt(offset(u + 1, 4), offsets.getInt(offset(u + 1, 4)) + offsets.getInt(offset(u, 4)));
+        }
+
+        ByteBuffer next = copy(offsets, 4L * nodeCount); // The next free slot of every node.
+        targets = allocate(8L * edgeCount);
+        slotWeights = allocate(16L * edgeCount);
+        slotEdges = allocate(8L * edgeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            int a = edgeStarts.getInt(offset(e, 4));
+            int b = edgeEnds.getInt(offset(e, 4));
+            double weight = edgeWeights.getDouble(offset(e, 8));
+            fill(next, a, b, weight, e);
+            fill(next, b, a, weight, e);
+        }
+    }
+
+    private void fill(ByteBuffer next, int from, int to, double weight, int edge) {
+        int slot = next.getInt(offset(from, 4));
+        next.putInt(offset(from, 4), slot + 1);
+        targets.putInt(offset(slot, 4), to);
+        slotWeights.putDouble(offset(slot, 8), weight);
+        slotEdges.putInt(offset(slot, 4), edge);
+    }
+
+    private static void increment(ByteBuffer ints, int index) {
+        ints.putInt(offset(index, 4), ints.getInt(offset(index, 4)) + 1);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public double getLatitude(int node) {
+        return latitudes.getDouble(offset(node, 8));
+    }
+
+    public double getLongitude(int node) {
+        return longitudes.getDouble(offset(node, 8));
+    }
+
+    public String getNodeId(int node) {
+        return nodeIds.get(node);
+    }
+
+    public int indexOf(String nodeId) {
+
+        /* The index of the intersection with this id, or -1. */
+
+        return nodeIds.indexOf(nodeId);
+    }
+
+    public Node getNode(int node) {
+
+        /* A new Node view of the intersection, with its index set. */
+
+        Node view = new Node(nodeIds.get(node), getLatitude(node), getLongitude(node));
+        view.setIndex(node);
+        return view;
+    }
+
+    public Node getNodeById(String id) {
+        int index = nodeIds.indexOf(id);
+        return index == -1 ? null : getNode(index);
+    }
+
+    public Edge getEdge(int edge) {
+
+        /* A new Edge view of the road, between new views of its ends. */
+
+        return new Edge(getNode(getEdgeStart(edge)), getNode(getEdgeEnd(edge)), edgeIds.get(edge),
+                getEdgeWeight(edge));
+    }
+
+    public int getEdgeStart(int edge) {
+        return edgeStarts.getInt(offset(edge, 4));
+    }
+
+    public int getEdgeEnd(int edge) {
+        return edgeEnds.getInt(offset(edge, 4));
+    }
+
+    public double getEdgeWeight(int edge) {
+        return edgeWeights.getDouble(offset(edge, 8));
+    }
+
+    public int getFirstSlot(int node) {
+
+        /* The slots of node are getFirstSlot(node) .. getFirstSlot(node + 1) - 1. */
+
+        return offsets.getInt(offset(node, 4));
+    }
+
+    public int getTarget(int slot) {
+        return targets.getInt(offset(slot, 4));
+    }
+
+    public double getWeight(int slot) {
+        return slotWeights.getDouble(offset(slot, 8));
+    }
+
+    public int getSlotEdge(int slot) {
+        return slotEdges.getInt(offset(slot, 4));
+    }
+
+    public long getOffHeapBytes() {
+        return nodeIds.getOffHeapBytes() + edgeIds.getOffHeapBytes() + latitudes.capacity()
+                + longitudes.capacity() + edgeStarts.capacity() + edgeEnds.capacity() + edgeWeights.capacity()
+                + offsets.capacity() + targets.capacity() + slotWeights.capacity() + slotEdges.capacity();
+    }
+
+    static ByteBuffer allocate(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Map too large for a direct buffer: " + bytes + " bytes");
+        }
+        return ByteBuffer.allocateDirect((int) Math.max(1, bytes)).order(ByteOrder.nativeOrder());
+    }
+
+    static ByteBuffer grow(ByteBuffer buffer, long minCapacity) {
+
+        /* A buffer at least twice as large, capped at 2 GB, with the contents of buffer. */
+
+        long capacity = Math.max(minCapacity, Math.min(2L * buffer.capacity(), Integer.MAX_VALUE - 8));
+        ByteBuffer bigger = allocate(capacity);
+        bigger.put(0, buffer, 0, buffer.capacity());
+        return bigger;
+    }
+
+    static ByteBuffer copy(ByteBuffer buffer, long bytes) {
+
+        /* The first bytes of buffer in a buffer of exactly that size. */
+
+        ByteBuffer copy = allocate(bytes);
+        copy.put(0, buffer, 0, (int) Math.min(bytes, buffer.capacity()));
+        return copy;
+    }
+
+    static int offset(long index, int width) {
+
+        /*
+         * Byte offset of element index in a buffer of width byte elements. Computed
+         * in long, so an index past 2 GB fails instead of wrapping around.
+         */
+
+        return Math.toIntExact(index * width);
+    }
+
+    private static String trimEnd(String line) {
+
+        /*
+         * Drops trailing '\r's, the same way GraphParser ends its lines. readLine
+         * already stops at a '\r', so this keeps the two parsers in step rather
+         * than changing what a CRLF file parses to today.
+         */
+
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, long bytes) {
+        return bytes > buffer.capacity() ? grow(buffer, bytes) : buffer;
+    }
+}
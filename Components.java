@@ -0,0 +1,141 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+public class Components {
+
+    /*
+     * Connected components of the road network, computed once when the graph is
+     * loaded and again for every version of the roads after an update (see
+     * Adjacency.getComponents()). Roads work both ways, so two intersections are
+     * connected exactly when they are in the same component, and routers use
+     * that to answer a query between two different components without
+     * searching at all.
+     *
+     * The components come from a union-find over the adjacency that runs on all
+     * cores: every road, seen from its end with the larger index, links the
+     * roots of its two ends with a compare-and-set, always making the root with
+     * the larger index point to the smaller one, so no cycle can form whatever
+     * order the threads run in. Afterwards the components are numbered in order
+     * of their smallest node index.
+     */
+
+    private final int[] component; // Component id by node index.
+    private final int[] sizes; // Number of nodes by component id.
+    private final int largest; // Id of the component with the most nodes, -1 for an empty graph.
+
+    public Components(Adjacency adjacency) {
+        int n = adjacency.getNodeCount();
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+
+        AtomicIntegerArray parent = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) {
+            parent.set(i, i);
+        }
+        IntStream.range(0, n).parallel().forEach(u -> {
+            for (int slot = offsets[u]; slot < offsets[u + 1]; slot++) {
+                if (targets[slot] < u) {
+                    union(parent, u, targets[slot]);
+                }
+            }
+        });
+
+        // A root has the smallest index of its component, so it is numbered before the rest of it.
+        component = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+            component[i] = root == i ? count++ : component[root];
+        }
+
+        sizes = new int[count];
+        for (int i = 0; i < n; i++) {
+            sizes[component[i]]++;
+        }
+        int best = -1;
+        for (int c = 0; c < count; c++) {
+            if (best == -1 || sizes[c] > sizes[best]) {
+                best = c;
+            }
+        }
+        largest = best;
+    }
+
+    private static int find(AtomicIntegerArray parent, int x) {
+
+        /* Root of x, halving the path on the way up. Safe to call while other threads link roots. */
+
+        while (true) {
+            int p = parent.get(x);
+            if (p == x) {
+                return x;
+            }
+            int grandparent = parent.get(p);
+            if (grandparent != p) {
+                parent.compareAndSet(x, p, grandparent);
+            }
+            x = p;
+        }
+    }
+
+    private static void union(AtomicIntegerArray parent, int a, int b) {
+        while (true) {
+            a = find(parent, a);
+            b = find(parent, b);
+            if (a == b) {
+                return;
+            }
+            if (a < b) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            // Fails when another thread linked a in the meantime; then both roots are looked up again.
+            if (parent.compareAndSet(a, a, b)) {
+                return;
+            }
+        }
+    }
+
+    public boolean connected(int a, int b) {
+        return component[a] == component[b];
+    }
+
+    public int getComponent(int node) {
+        return component[node];
+    }
+
+    public int getCount() {
+        return sizes.length;
+    }
+
+    public int getSize(int componentId) {
+        return sizes[componentId];
+    }
+
+    public int[] getSizes() {
+
+        /* Node counts by component id, for data quality reports. */
+
+        return sizes.clone();
+    }
+
+    public int getLargest() {
+        return largest;
+    }
+
+    @Override
+    public String toString() {
+        int nodes = component.length;
+        int isolated = 0;
+        for (int size : sizes) {
+            if (size == 1) {
+                isolated++;
+            }
+        }
+        int main = largest == -1 ? 0 : sizes[largest];
+        return String.format("%d components, the largest has %d of %d intersections (%.1f%%), "
+                + "%d intersections have no road", sizes.length, main, nodes,
+                nodes == 0 ? 0.0 : 100.0 * main / nodes, isolated);
+    }
+}
@@ -0,0 +1,565 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class ContractionHierarchy {
+
+    /*
+     * Contraction Hierarchies preprocessing for ContractionHierarchyRouter.
+     *
+     * Nodes are contracted one level at a time. Contracting a node removes it and
+     * adds a shortcut between two of its neighbours whenever the route through it
+     * is the only shortest one (a witness search finds no other route at most as
+     * long). Nodes are ordered by edge difference: shortcuts added minus edges
+     * removed, plus the number of already contracted neighbours to spread the
+     * contraction evenly.
+     *
+     * Each round contracts an independent set of nodes, namely the nodes whose
+     * priority is lower than that of all their remaining neighbours, in parallel.
+     * The witness searches of a round avoid all nodes of the round, so the
+     * shortcuts of one node never rely on a node that disappears at the same time.
+     *
+     * The result is the upward graph: for every node, the original edges and
+     * shortcuts to nodes contracted later. A shortcut remembers the node it
+     * bypasses so routes can be unpacked again. Because the graph is undirected
+     * the upward graph serves both the forward and the backward query.
+     */
+
+    private static final int MAGIC = 0x43524843; // "CHRC" in little endian.
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int WITNESS_SETTLE_LIMIT = 500; // A failed witness search only costs a shortcut.
+    private static final int ESTIMATE_SETTLE_LIMIT = 50; // Priorities are estimates, so they get cheaper searches.
+
+    private final int[] rank; // Contraction order of every node. Higher ranks were contracted later.
+    private final int[] upOffsets; // CSR of the upward graph, like Adjacency.
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upMiddles; // Bypassed node of a shortcut, or -1 for an original edge.
+
+    private ContractionHierarchy(int[] rank, int[] upOffsets, int[] upTargets, double[] upWeights, int[] upMiddles) {
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+    }
+
+    public int[] getRank() {
+        return rank;
+    }
+
+    public int[] getUpOffsets() {
+        return upOffsets;
+    }
+
+    public int[] getUpTargets() {
+        return upTargets;
+    }
+
+    public double[] getUpWeights() {
+        return upWeights;
+    }
+
+    public int[] getUpMiddles() {
+        return upMiddles;
+    }
+
+    public static ContractionHierarchy forGraph(Graph graph) {
+
+        /*
+         * Loads the hierarchy stored next to the map file, or builds and stores it
+         * when there is none or it was built for a different version of the map.
+         */
+
+        Path path = Paths.get(graph.getFileName() + ".ch");
+        long fingerprint = graph.getAdjacency().fingerprint();
+
+        if (Files.exists(path)) {
+            try {
+                ContractionHierarchy hierarchy = read(path, graph.getNodeCount(), fingerprint);
+                if (hierarchy != null) {
+                    return hierarchy;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        System.out.println("Building contraction hierarchy for " + graph.getFileName() + "...");
+        long start = System.nanoTime();
+        ContractionHierarchy hierarchy = build(graph.getAdjacency());
+        System.out.printf("Contraction hierarchy built in %.1f s with %d upward edges%n",
+                (System.nanoTime() - start) / 1e9, hierarchy.upTargets.length);
+
+        if (graph.hasUpdates()) {
+            return hierarchy; // Only for the updated roads; the file stays valid for the loaded ones.
+        }
+        try {
+            hierarchy.write(path, fingerprint);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return hierarchy;
+    }
+
+    public static ContractionHierarchy build(Adjacency adjacency) {
+        return new Builder(adjacency).build();
+    }
+
+    public int[] unpack(int from, int to) {
+
+        /*
+         * Expands the edge or shortcut between two nodes into the original nodes it
+         * stands for, from first to last, without the first node. The middle node
+         * of a shortcut is always lower than both ends, so both halves are upward
+         * edges of the middle node.
+         */
+
+        IntList path = new IntList();
+        IntList stack = new IntList();
+        stack.add(from);
+        stack.add(to);
+
+        while (stack.size() > 0) {
+            int b = stack.pop();
+            int a = stack.pop();
+            int middle = middleOf(a, b);
+            if (middle == -1) {
+                path.add(b);
+            } else {
+                stack.add(middle);
+                stack.add(b);
+                stack.add(a);
+                stack.add(middle);
+            }
+        }
+        return path.toArray();
+    }
+
+    private int middleOf(int a, int b) {
+        int low = rank[a] < rank[b] ? a : b;
+        int high = low == a ? b : a;
+        for (int slot = upOffsets[low]; slot < upOffsets[low + 1]; slot++) {
+            if (upTargets[slot] == high) {
+                return upMiddles[slot];
+            }
+        }
+        throw new IllegalStateException("No edge between " + a + " and " + b + " in the hierarchy");
+    }
+
+    public void write(Path path, long fingerprint) throws IOException {
+
+        /* Same idea as GraphSnapshot: a small header and little endian arrays. */
+
+        int n = rank.length;
+        int k = upTargets.length;
+        long size = HEADER_SIZE + 4L * n + 4L * (n + 1) + 16L * k;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Contraction hierarchy is too large to store: " + size + " bytes");
+        }
+
+        Files.deleteIfExists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(k).putLong(fingerprint);
+
+            buffer.asIntBuffer().put(rank);
+            buffer.position(buffer.position() + 4 * n);
+            buffer.asIntBuffer().put(upOffsets);
+            buffer.position(buffer.position() + 4 * (n + 1));
+            buffer.asIntBuffer().put(upTargets);
+            buffer.position(buffer.position() + 4 * k);
+            buffer.asDoubleBuffer().put(upWeights);
+            buffer.position(buffer.position() + 8 * k);
+            buffer.asIntBuffer().put(upMiddles);
+            buffer.force();
+        }
+    }
+
+    public static ContractionHierarchy read(Path path, int nodeCount, long fingerprint) throws IOException {
+
+        /* Returns null when the file belongs to another map or another version. */
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != nodeCount) {
+                return null;
+            }
+            int k = buffer.getInt();
+            if (buffer.getLong() != fingerprint
+                    || channel.size() != HEADER_SIZE + 4L * nodeCount + 4L * (nodeCount + 1) + 16L * k) {
+                return null;
+            }
+
+            int[] rank = new int[nodeCount];
+            int[] upOffsets = new int[nodeCount + 1];
+            int[] upTargets = new int[k];
+            double[] upWeights = new double[k];
+            int[] upMiddles = new int[k];
+
+            buffer.asIntBuffer().get(rank);
+            buffer.position(buffer.position() + 4 * nodeCount);
+            buffer.asIntBuffer().get(upOffsets);
+            buffer.position(buffer.position() + 4 * (nodeCount + 1));
+            buffer.asIntBuffer().get(upTargets);
+            buffer.position(buffer.position() + 4 * k);
+            buffer.asDoubleBuffer().get(upWeights);
+            buffer.position(buffer.position() + 8 * k);
+            buffer.asIntBuffer().get(upMiddles);
+
+            return new ContractionHierarchy(rank, upOffsets, upTargets, upWeights, upMiddles);
+        }
+    }
+
+    private static class Builder {
+
+        /*
+         * The contraction itself. The remaining graph is kept as growable
+         * per-node lists so shortcuts can be added; edges to a node are removed
+         * from its neighbours' lists once it is contracted.
+         */
+
+        private static final byte REMAINING = 0;
+        private static final byte CONTRACTING = 1; // Part of the current round.
+        private static final byte CONTRACTED = 2;
+
+        private final int nodeCount;
+        private final int[][] neighbors;
+        private final double[][] weights;
+        private final int[][] middles;
+        private final int[] degree; // Used length of the per-node lists.
+        private final byte[] status;
+        private final int[] priority;
+        private final int[] deletedNeighbors;
+        private final ThreadLocal<Witness> witness;
+
+        private final int[][] upTargets; // Upward edges of every node, recorded when it is contracted.
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+        private final int[] rank;
+
+        Builder(Adjacency adjacency) {
+            nodeCount = adjacency.getNodeCount();
+            neighbors = new int[nodeCount][];
+            weights = new double[nodeCount][];
+            middles = new int[nodeCount][];
+            degree = new int[nodeCount];
+            status = new byte[nodeCount];
+            priority = new int[nodeCount];
+            deletedNeighbors = new int[nodeCount];
+            witness = ThreadLocal.withInitial(() -> new Witness(nodeCount));
+            upTargets = new int[nodeCount][];
+            upWeights = new double[nodeCount][];
+            upMiddles = new int[nodeCount][];
+            rank = new int[nodeCount];
+
+            int[] offsets = adjacency.getOffsets();
+            for (int u = 0; u < nodeCount; u++) {
+                int capacity = Math.max(4, offsets[u + 1] - offsets[u]);
+                neighbors[u] = new int[capacity];
+                weights[u] = new double[capacity];
+                middles[u] = new int[capacity];
+            }
+            int[] targets = adjacency.getTargets();
+            double[] slotWeights = adjacency.getWeights();
+            for (int u = 0; u < nodeCount; u++) {
+                for (int slot = offsets[u]; slot < offsets[u + 1]; slot++) {
+                    if (targets[slot] != u) {
+                        addOrImprove(u, targets[slot], slotWeights[slot], -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            IntStream.range(0, nodeCount).parallel().forEach(u -> priority[u] = computePriority(u));
+
+            int[] remaining = IntStream.range(0, nodeCount).toArray();
+            int remainingCount = nodeCount;
+            int nextRank = 0;
+
+            while (remainingCount > 0) {
+                int[] round = Arrays.stream(remaining, 0, remainingCount)
+                        .parallel()
+                        .filter(this::isLocalMinimum)
+                        .toArray();
+                for (int u : round) {
+                    status[u] = CONTRACTING;
+                }
+
+                Shortcuts[] shortcuts = new Shortcuts[round.length];
+                IntStream.range(0, round.length).parallel()
+                        .forEach(i -> shortcuts[i] = findShortcuts(round[i], true));
+
+                // Sequential part: record upward edges, then add this round's shortcuts.
+                for (int u : round) {
+                    rank[u] = nextRank++;
+                    recordUpwardEdges(u);
+                }
+                for (int i = 0; i < round.length; i++) {
+                    Shortcuts s = shortcuts[i];
+                    for (int j = 0; j < s.count; j++) {
+                        addOrImprove(s.from[j], s.to[j], s.weight[j], round[i]);
+                        addOrImprove(s.to[j], s.from[j], s.weight[j], round[i]);
+                    }
+                }
+                for (int u : round) {
+                    status[u] = CONTRACTED;
+                    for (int i = 0; i < degree[u]; i++) {
+                        remove(neighbors[u][i], u);
+                    }
+                }
+
+                // Priorities of the neighbours changed. Everything else stays as it was.
+                int kept = 0;
+                for (int i = 0; i < remainingCount; i++) {
+                    if (status[remaining[i]] == REMAINING) {
+                        remaining[kept++] = remaining[i];
+                    }
+                }
+                remainingCount = kept;
+                int[] touched = Arrays.stream(round)
+                        .flatMap(u -> Arrays.stream(neighbors[u], 0, degree[u]))
+                        .filter(v -> status[v] == REMAINING)
+                        .distinct()
+                        .toArray();
+                Arrays.stream(touched).parallel().forEach(v -> priority[v] = computePriority(v));
+            }
+
+            return pack();
+        }
+
+        private void recordUpwardEdges(int u) {
+
+            /* Every remaining neighbour of u is contracted later, so its edge goes up. */
+
+            int count = 0;
+            for (int i = 0; i < degree[u]; i++) {
+                if (status[neighbors[u][i]] == REMAINING) {
+                    count++;
+                }
+            }
+
+            upTargets[u] = new int[count];
+            upWeights[u] = new double[count];
+            upMiddles[u] = new int[count];
+            int k = 0;
+            for (int i = 0; i < degree[u]; i++) {
+                int v = neighbors[u][i];
+                if (status[v] == REMAINING) {
+                    upTargets[u][k] = v;
+                    upWeights[u][k] = weights[u][i];
+                    upMiddles[u][k] = middles[u][i];
+                    deletedNeighbors[v]++;
+                    k++;
+                }
+            }
+        }
+
+        private ContractionHierarchy pack() {
+            int[] offsets = new int[nodeCount + 1];
+            for (int u = 0; u < nodeCount; u++) {
+                offsets[u + 1] = offsets[u] + upTargets[u].length;
+            }
+            int k = offsets[nodeCount];
+            int[] targets = new int[k];
+            double[] packedWeights = new double[k];
+            int[] packedMiddles = new int[k];
+            for (int u = 0; u < nodeCount; u++) {
+                System.arraycopy(upTargets[u], 0, targets, offsets[u], upTargets[u].length);
+                System.arraycopy(upWeights[u], 0, packedWeights, offsets[u], upWeights[u].length);
+                System.arraycopy(upMiddles[u], 0, packedMiddles, offsets[u], upMiddles[u].length);
+            }
+            return new ContractionHierarchy(rank, offsets, targets, packedWeights, packedMiddles);
+        }
+
+        private boolean isLocalMinimum(int u) {
+            for (int i = 0; i < degree[u]; i++) {
+                int v = neighbors[u][i];
+                if (status[v] == REMAINING && (priority[v] < priority[u] || priority[v] == priority[u] && v < u)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int computePriority(int u) {
+            int activeDegree = 0;
+            for (int i = 0; i < degree[u]; i++) {
+                if (status[neighbors[u][i]] == REMAINING) {
+                    activeDegree++;
+                }
+            }
+            return 2 * (findShortcuts(u, false).count - activeDegree) + deletedNeighbors[u];
+        }
+
+        private Shortcuts findShortcuts(int u, boolean contracting) {
+
+            /*
+             * Shortcuts needed to contract u: one for every pair of remaining
+             * neighbours whose route through u is shorter than any witness route.
+             * While contracting, witnesses avoid the whole round; while only
+             * estimating the priority they avoid u alone and search less.
+             */
+
+            Shortcuts result = new Shortcuts();
+            Witness w = witness.get();
+            SearchState state = w.state;
+
+            for (int i = 0; i < degree[u]; i++) {
+                int a = neighbors[u][i];
+                if (status[a] != REMAINING) {
+                    continue;
+                }
+
+                // The search from a only needs to reach the neighbours after it.
+                w.stamp++;
+                int targetCount = 0;
+                double maxVia = 0;
+                for (int j = i + 1; j < degree[u]; j++) {
+                    int b = neighbors[u][j];
+                    if (status[b] == REMAINING) {
+                        w.target[b] = w.stamp;
+                        targetCount++;
+                        maxVia = Math.max(maxVia, weights[u][i] + weights[u][j]);
+                    }
+                }
+                if (targetCount == 0) {
+                    continue;
+                }
+
+                witnessSearch(w, a, u, maxVia, targetCount, contracting,
+                        contracting ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+
+                for (int j = i + 1; j < degree[u]; j++) {
+                    int b = neighbors[u][j];
+                    double via = weights[u][i] + weights[u][j];
+                    if (status[b] == REMAINING && state.getDistance(b) > via) {
+                        result.add(a, b, via);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private void witnessSearch(Witness w, int source, int skip, double maxDistance, int targetCount,
+                boolean contracting, int settleLimit) {
+
+            /*
+             * Dijkstra from source in the remaining graph. It stops once every target
+             * is settled, the distance bound is passed or the settle limit is hit.
+             */
+
+            SearchState state = w.state;
+            IndexedHeap heap = state.getHeap();
+            state.reset();
+            state.update(source, 0.0, -1);
+            heap.push(source, 0.0);
+
+            int settled = 0;
+            while (!heap.isEmpty() && heap.peekKey() <= maxDistance && settled++ < settleLimit) {
+                int curr = heap.poll();
+                if (w.target[curr] == w.stamp && --targetCount == 0) {
+                    break;
+                }
+                double currDistance = state.getDistance(curr);
+                for (int i = 0; i < degree[curr]; i++) {
+                    int v = neighbors[curr][i];
+                    if (v == skip || contracting && status[v] == CONTRACTING) {
+                        continue;
+                    }
+                    double alt = currDistance + weights[curr][i];
+                    if (alt < state.getDistance(v)) {
+                        state.update(v, alt, curr);
+                        heap.pushOrDecrease(v, alt);
+                    }
+                }
+            }
+        }
+
+        private void remove(int u, int v) {
+
+            /* Drops the edge to a contracted node, so the remaining graph is all that is searched. */
+
+            for (int i = 0; i < degree[u]; i++) {
+                if (neighbors[u][i] == v) {
+                    int last = --degree[u];
+                    neighbors[u][i] = neighbors[u][last];
+                    weights[u][i] = weights[u][last];
+                    middles[u][i] = middles[u][last];
+                    return;
+                }
+            }
+        }
+
+        private void addOrImprove(int u, int v, double weight, int middle) {
+            for (int i = 0; i < degree[u]; i++) {
+                if (neighbors[u][i] == v) {
+                    if (weight < weights[u][i]) {
+                        weights[u][i] = weight;
+                        middles[u][i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[u] == neighbors[u].length) {
+                int capacity = 2 * degree[u];
+                neighbors[u] = Arrays.copyOf(neighbors[u], capacity);
+                weights[u] = Arrays.copyOf(weights[u], capacity);
+                middles[u] = Arrays.copyOf(middles[u], capacity);
+            }
+            neighbors[u][degree[u]] = v;
+            weights[u][degree[u]] = weight;
+            middles[u][degree[u]] = middle;
+            degree[u]++;
+        }
+    }
+
+    private static class Witness {
+
+        /* Per-thread witness search buffers. target[v] == stamp marks v as a target. */
+
+        final SearchState state;
+        final int[] target;
+        int stamp;
+
+        Witness(int nodeCount) {
+            state = new SearchState(nodeCount);
+            target = new int[nodeCount];
+        }
+    }
+
+    private static class Shortcuts {
+        int[] from = new int[4];
+        int[] to = new int[4];
+        double[] weight = new double[4];
+        int count;
+
+        void add(int a, int b, double w) {
+            if (count == from.length) {
+                from = Arrays.copyOf(from, 2 * count);
+                to = Arrays.copyOf(to, 2 * count);
+                weight = Arrays.copyOf(weight, 2 * count);
+            }
+            from[count] = a;
+            to[count] = b;
+            weight[count] = w;
+            count++;
+        }
+    }
+}
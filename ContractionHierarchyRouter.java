@@ -0,0 +1,144 @@
+public class ContractionHierarchyRouter implements Router {
+
+    /*
+     * Query on a ContractionHierarchy: a bidirectional Dijkstra in which both
+     * sides only follow edges up the hierarchy. The shortest route goes up from
+     * the source and down to the destination, so the two searches meet at its
+     * highest node. Each side stops once its top key reaches the best meeting
+     * distance. The route is then unpacked back into original nodes.
+     * Not thread safe: create one instance per routing thread. The hierarchy
+     * itself is shared. While it is rebuilt after a road update (see
+     * Graph.update()), queries are answered by a bidirectional Dijkstra. If
+     * that rebuild failed, they throw an IllegalStateException instead.
+     */
+
+    private final Graph graph;
+    private final SearchState forward;
+    private final SearchState backward;
+    private final SearchStats stats;
+    private final BidirectionalDijkstra fallback; // Used while the hierarchy is rebuilt.
+    private SearchStats lastStats; // Of whichever search answered the last query.
+    private long relaxed; // Upward edges looked at by the current query, for stats.
+
+    public ContractionHierarchyRouter(Graph graph) {
+        this.graph = graph;
+        graph.getContractionHierarchy(); // Loads or builds it now rather than on the first query.
+        this.forward = new SearchState(graph.getNodeCount());
+        this.backward = new SearchState(graph.getNodeCount());
+        this.stats = new SearchStats("ch");
+        this.fallback = new BidirectionalDijkstra(graph);
+        this.lastStats = stats;
+    }
+
+    @Override
+    public RouteResult route(int source, int target) {
+        // The hierarchy of the current roads, null while it is rebuilt after a road update.
+        ContractionHierarchy hierarchy;
+        Components components;
+        synchronized (graph) {
+            hierarchy = graph.getBuiltContractionHierarchy();
+            components = graph.getComponents();
+        }
+        if (hierarchy == null) {
+            RouteResult result = fallback.route(source, target);
+            lastStats = fallback.getStats();
+            return result;
+        }
+
+        stats.begin(source, target, forward.getHeap(), backward.getHeap());
+        relaxed = 0;
+        RouteResult result = search(source, target, hierarchy, components);
+        stats.end(result, relaxed, forward.getHeap(), backward.getHeap());
+        lastStats = stats;
+        return result;
+    }
+
+    @Override
+    public SearchStats getStats() {
+        return lastStats;
+    }
+
+    private RouteResult search(int source, int target, ContractionHierarchy hierarchy, Components components) {
+        if (!components.connected(source, target)) {
+            return null; // Different components, so there is nothing to search.
+        }
+
+        int[] upOffsets = hierarchy.getUpOffsets();
+        int[] upTargets = hierarchy.getUpTargets();
+        double[] upWeights = hierarchy.getUpWeights();
+        IndexedHeap forwardHeap = forward.getHeap();
+        IndexedHeap backwardHeap = backward.getHeap();
+
+        forward.reset();
+        backward.reset();
+        forward.update(source, 0.0, -1);
+        forwardHeap.push(source, 0.0);
+        backward.update(target, 0.0, -1);
+        backwardHeap.push(target, 0.0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+
+        while (true) {
+            boolean forwardOpen = !forwardHeap.isEmpty() && forwardHeap.peekKey() < best;
+            boolean backwardOpen = !backwardHeap.isEmpty() && backwardHeap.peekKey() < best;
+            if (!forwardOpen && !backwardOpen) {
+                break;
+            }
+
+            boolean forwardStep = forwardOpen && (!backwardOpen || forwardHeap.peekKey() <= backwardHeap.peekKey());
+            SearchState self = forwardStep ? forward : backward;
+            SearchState other = forwardStep ? backward : forward;
+            IndexedHeap heap = self.getHeap();
+
+            int curr = heap.poll();
+            if ((heap.getPolls() & (Router.CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                Router.checkCancelled();
+            }
+            double currDistance = self.getDistance(curr);
+
+            if (other.isReached(curr) && currDistance + other.getDistance(curr) < best) {
+                best = currDistance + other.getDistance(curr);
+                meet = curr;
+            }
+
+            relaxed += upOffsets[curr + 1] - upOffsets[curr];
+            for (int slot = upOffsets[curr]; slot < upOffsets[curr + 1]; slot++) {
+                int neighbor = upTargets[slot];
+                double alt = currDistance + upWeights[slot];
+                if (alt < self.getDistance(neighbor)) {
+                    self.update(neighbor, alt, curr);
+                    heap.pushOrDecrease(neighbor, alt);
+                }
+            }
+        }
+
+        if (meet == -1) {
+            return null;
+        }
+        return new RouteResult(best, unpack(hierarchy, meet));
+    }
+
+    private int[] unpack(ContractionHierarchy hierarchy, int meet) {
+
+        /*
+         * Walks the forward chain from source up to meet and the backward chain from
+         * meet down to target, expanding every hop.
+         */
+
+        IntList path = new IntList();
+        int[] up = forward.pathTo(meet);
+        path.add(up[0]);
+        for (int i = 1; i < up.length; i++) {
+            for (int node : hierarchy.unpack(up[i - 1], up[i])) {
+                path.add(node);
+            }
+        }
+        for (int node = meet, next = backward.getParent(meet); next != -1; node = next, next = backward.getParent(next)) {
+            for (int n : hierarchy.unpack(node, next)) {
+                path.add(n);
+            }
+        }
+        return path.toArray();
+    }
+}
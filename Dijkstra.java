@@ -0,0 +1,114 @@
+public class Dijkstra implements Router {
+
+    /*
+     * Point-to-point Dijkstra over the CSR adjacency. The search state is reused
+     * between queries, so a query allocates nothing but its result.
+     * Not thread safe: create one instance per routing thread.
+     */
+
+    private final Graph graph;
+    private final SearchState state;
+    private final SearchStats stats;
+    private long relaxed; // Roads looked at by the current query, for stats.
+
+    public Dijkstra(Graph graph) {
+        this.graph = graph;
+        this.state = new SearchState(graph.getNodeCount());
+        this.stats = new SearchStats("dijkstra");
+    }
+
+    @Override
+    public RouteResult route(int source, int target) {
+        stats.begin(source, target, state.getHeap(), null);
+        relaxed = 0;
+        RouteResult result = search(source, target);
+        stats.end(result, relaxed, state.getHeap(), null);
+        return result;
+    }
+
+    @Override
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    private RouteResult search(int source, int target) {
+
+        /*
+         * Returns the shortest route from source to target, or null if target can
+         * not be reached. Nodes are settled in order of distance and every node is
+         * queued at most once thanks to decrease-key.
+         */
+
+        Adjacency adjacency = graph.getAdjacency(); // Read once: the version this query sees.
+        if (!adjacency.getComponents().connected(source, target)) {
+            return null; // Different components, so there is nothing to search.
+        }
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+        double[] weights = adjacency.getWeights();
+        IndexedHeap heap = state.getHeap();
+
+        state.reset();
+        state.update(source, 0.0, -1);
+        heap.push(source, 0.0);
+
+        while (!heap.isEmpty()) {
+            int curr = heap.poll();
+            if ((heap.getPolls() & (Router.CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                Router.checkCancelled();
+            }
+
+            if (curr == target) {
+                return new RouteResult(state.getDistance(target), state.pathTo(target));
+            }
+
+            double currDistance = state.getDistance(curr);
+            relaxed += offsets[curr + 1] - offsets[curr];
+            for (int slot = offsets[curr]; slot < offsets[curr + 1]; slot++) {
+                int neighbor = targets[slot];
+                double alt = currDistance + weights[slot];
+
+                // A settled neighbour can never improve, so no visited set is needed.
+                if (alt < state.getDistance(neighbor)) {
+                    state.update(neighbor, alt, curr);
+                    heap.pushOrDecrease(neighbor, alt);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    public SearchState searchAll(int source) {
+
+        /*
+         * One-to-all search: settles every node reachable from source. The returned
+         * state holds the distances and stays valid until the next query on this
+         * instance.
+         */
+
+        Adjacency adjacency = graph.getAdjacency();
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+        double[] weights = adjacency.getWeights();
+        IndexedHeap heap = state.getHeap();
+
+        state.reset();
+        state.update(source, 0.0, -1);
+        heap.push(source, 0.0);
+
+        while (!heap.isEmpty()) {
+            int curr = heap.poll();
+            double currDistance = state.getDistance(curr);
+            for (int slot = offsets[curr]; slot < offsets[curr + 1]; slot++) {
+                int neighbor = targets[slot];
+                double alt = currDistance + weights[slot];
+                if (alt < state.getDistance(neighbor)) {
+                    state.update(neighbor, alt, curr);
+                    heap.pushOrDecrease(neighbor, alt);
+                }
+            }
+        }
+        return state;
+    }
+}
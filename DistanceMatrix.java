@@ -0,0 +1,192 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class DistanceMatrix {
+
+    /*
+     * Many-to-many distances. Instead of one point-to-point query per cell, every
+     * source gets a single one-to-many Dijkstra that stops as soon as all targets
+     * are settled. Sources are spread over the common fork-join pool and every
+     * thread reuses its own search buffers.
+     *
+     * Results are a dense double[sources][targets], with infinity for pairs that
+     * are not connected, or for large matrices a memory-mapped file:
+     * magic, rows, columns (ints, little endian) followed by the rows of doubles.
+     */
+
+    public static final int MAGIC = 0x5854524d; // "MRTX" in little endian.
+    private static final int HEADER_SIZE = 12;
+    private static final long MAX_MAPPING = 1L << 30;
+
+    private final Graph graph;
+    private final ThreadLocal<Search> searches;
+
+    public DistanceMatrix(Graph graph) {
+        this.graph = graph;
+        this.searches = ThreadLocal.withInitial(() -> new Search(graph.getNodeCount()));
+    }
+
+    public double[][] compute(int[] sources, int[] targets) {
+        double[][] matrix = new double[sources.length][];
+        IntStream.range(0, sources.length).parallel()
+                .forEach(i -> matrix[i] = searches.get().row(sources[i], targets));
+        return matrix;
+    }
+
+    public void computeToFile(int[] sources, int[] targets, Path path) throws IOException {
+
+        /*
+         * Same as compute(), but every row goes straight into a memory-mapped file,
+         * so the matrix never has to fit on the heap. The file is mapped in pieces
+         * of at most 1 GB, each holding whole rows.
+         */
+
+        long rowBytes = 8L * targets.length;
+        int rowsPerMapping = (int) Math.max(1, Math.min(sources.length, MAX_MAPPING / Math.max(1, rowBytes)));
+
+        Files.deleteIfExists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(sources.length).putInt(targets.length).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, HEADER_SIZE - header.remaining());
+            }
+
+            for (int first = 0; first < sources.length; first += rowsPerMapping) {
+                int rows = Math.min(rowsPerMapping, sources.length - first);
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_SIZE + first * rowBytes, rows * rowBytes);
+                mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+                int base = first;
+                IntStream.range(0, rows).parallel().forEach(r -> {
+                    double[] row = searches.get().row(sources[base + r], targets);
+                    ByteBuffer view = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                    view.position((int) (r * rowBytes));
+                    view.asDoubleBuffer().put(row);
+                });
+                mapping.force();
+            }
+        }
+    }
+
+    public static void writeText(double[][] matrix, List<String> sourceIds, List<String> targetIds, Path path)
+            throws IOException {
+
+        /* Tab separated, with the target ids as header row and the source id first on every row. */
+
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            for (String id : targetIds) {
+                writer.write('\t');
+                writer.write(id);
+            }
+            writer.newLine();
+            for (int i = 0; i < matrix.length; i++) {
+                writer.write(sourceIds.get(i));
+                for (double d : matrix[i]) {
+                    writer.write('\t');
+                    writer.write(Double.toString(d));
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    public static List<String> readIds(Path path) throws IOException {
+
+        /* One node id per line. Blank lines and # comments are skipped. */
+
+        List<String> ids = new ArrayList<>();
+        for (String line : Files.readAllLines(path)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                ids.add(line);
+            }
+        }
+        return ids;
+    }
+
+    private class Search {
+
+        /* Per-thread buffers: search state plus target marks, stamped like SearchState. */
+
+        private final SearchState state;
+        private final int[] targetStamp;
+        private int stamp;
+
+        Search(int nodeCount) {
+            state = new SearchState(nodeCount);
+            targetStamp = new int[nodeCount];
+        }
+
+        double[] row(int source, int[] targets) {
+
+            /*
+             * One-to-many Dijkstra from source that stops when every target is
+             * settled. Only targets in the component of source are marked; the
+             * others are not connected and get infinity without being searched for.
+             */
+
+            Adjacency adjacency = graph.getAdjacency();
+            Components components = adjacency.getComponents();
+            double[] row = new double[targets.length];
+
+            stamp++;
+            int remaining = 0;
+            for (int target : targets) {
+                if (targetStamp[target] != stamp && components.connected(source, target)) {
+                    targetStamp[target] = stamp;
+                    remaining++;
+                }
+            }
+            if (remaining == 0) {
+                Arrays.fill(row, Double.POSITIVE_INFINITY);
+                return row;
+            }
+
+            int[] offsets = adjacency.getOffsets();
+            int[] neighbors = adjacency.getTargets();
+            double[] weights = adjacency.getWeights();
+            IndexedHeap heap = state.getHeap();
+
+            state.reset();
+            state.update(source, 0.0, -1);
+            heap.push(source, 0.0);
+
+            while (!heap.isEmpty()) {
+                int curr = heap.poll();
+                if (targetStamp[curr] == stamp && --remaining == 0) {
+                    break;
+                }
+
+                double currDistance = state.getDistance(curr);
+                for (int slot = offsets[curr]; slot < offsets[curr + 1]; slot++) {
+                    int neighbor = neighbors[slot];
+                    double alt = currDistance + weights[slot];
+                    if (alt < state.getDistance(neighbor)) {
+                        state.update(neighbor, alt, curr);
+                        heap.pushOrDecrease(neighbor, alt);
+                    }
+                }
+            }
+
+            // Every marked target is settled, the rest are in other components.
+            for (int j = 0; j < targets.length; j++) {
+                row[j] = targetStamp[targets[j]] == stamp ? state.getDistance(targets[j]) : Double.POSITIVE_INFINITY;
+            }
+            return row;
+        }
+    }
+}
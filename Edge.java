@@ -20,6 +20,19 @@ public class Edge {
         this.weight = haversine(start.getLatitude(), start.getLongitude(), end.getLatitude(), end.getLongitude());
     }
 
+    public Edge(Node start, Node end, String id, double weight) {
+
+        /*
+         * Used when the weight is already known, e.g. when loading a graph snapshot,
+         * so haversine does not have to be recomputed.
+         */
+
+        this.start = start;
+        this.end = end;
+        this.id = id;
+        this.weight = weight;
+    }
+
     public Node getStart() {
         return this.start;
     }
@@ -44,7 +57,7 @@ public class Edge {
         return this.weight;
     }
 
-    private double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+    static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
         /*
          * An algorithm to calculate the weight of the edge, that is distance between
          * two intersections.
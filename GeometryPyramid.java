@@ -0,0 +1,315 @@
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+public class GeometryPyramid {
+
+    /*
+     * Simplified copies of the road geometry for drawing the map zoomed out,
+     * where thousands of roads fall on the same pixel.
+     *
+     * Roads are first joined into polylines: a polyline runs from one
+     * intersection (a node that does not have exactly two roads) through the
+     * nodes in between to the next one. Level k then holds every polyline
+     * simplified with Douglas-Peucker at a tolerance of 2^k map units, each level
+     * simplified from the one below it. What is left of short polylines is a
+     * single segment; of those, only one is kept per pair of neighbouring cells
+     * of a grid with the tolerance as cell size, so a dense city collapses into
+     * about one segment per pixel where that level is used.
+     *
+     * The levels stop once the tolerance is larger than the whole map. Drawing
+     * walks the polylines of one level and skips those whose bounding box is
+     * outside the view.
+     */
+
+    private static final int MAX_LEVELS = 30;
+
+    private final Level[] levels; // levels[k - 1] is level k.
+
+    public GeometryPyramid(Graph graph, float[] xs, float[] ys) {
+        Level base = chains(graph, xs, ys);
+
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        float extent = Math.max(maxX - minX, maxY - minY);
+
+        Level[] built = new Level[MAX_LEVELS];
+        int count = 0;
+        Level previous = base;
+        for (int k = 1; k <= MAX_LEVELS && (1 << (k - 1)) <= extent; k++) {
+            previous = simplify(previous, 1 << k);
+            built[count++] = previous;
+        }
+        levels = Arrays.copyOf(built, count);
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getPointCount(int level) {
+        return levels[level - 1].xs.length;
+    }
+
+    public int levelFor(double tolerance) {
+
+        /* The coarsest level whose tolerance is at most the given one, or 0 for none. */
+
+        int level = 0;
+        while (level < levels.length && (1L << (level + 1)) <= tolerance) {
+            level++;
+        }
+        return level;
+    }
+
+    public void append(int level, double minX, double minY, double maxX, double maxY, Path2D.Float roads,
+            Path2D.Float dots) {
+
+        /*
+         * Adds the polylines of level that overlap the box to roads and, when dots
+         * is not null, their end points to dots as zero-length segments.
+         */
+
+        Level l = levels[level - 1];
+        for (int line = 0; line < l.getLineCount(); line++) {
+            int b = 4 * line;
+            if (l.bounds[b + 2] < minX || l.bounds[b] > maxX || l.bounds[b + 3] < minY || l.bounds[b + 1] > maxY) {
+                continue;
+            }
+            int first = l.lineStart[line];
+            int last = l.lineStart[line + 1] - 1;
+            roads.moveTo(l.xs[first], l.ys[first]);
+            for (int p = first + 1; p <= last; p++) {
+                roads.lineTo(l.xs[p], l.ys[p]);
+            }
+            if (dots != null) {
+                dots.moveTo(l.xs[first], l.ys[first]);
+                dots.lineTo(l.xs[first], l.ys[first]);
+                dots.moveTo(l.xs[last], l.ys[last]);
+                dots.lineTo(l.xs[last], l.ys[last]);
+            }
+        }
+    }
+
+    private static Level chains(Graph graph, float[] xs, float[] ys) {
+
+        /*
+         * Walks every road once, following nodes with two roads until an
+         * intersection. Whatever is left afterwards are loops without any
+         * intersection, which start at an arbitrary node of the loop. Always the
+         * roads as loaded, like the rest of the map (see MapRenderer).
+         */
+
+        Adjacency adjacency = graph.getBaseAdjacency();
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+        int[] edgeIds = adjacency.getEdgeIds();
+        int n = adjacency.getNodeCount();
+
+        BitSet walked = new BitSet(graph.getEdges().size());
+        IntList lineStart = new IntList();
+        IntList points = new IntList(adjacency.getSlotCount() + 1);
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int u = 0; u < n; u++) {
+                if (pass == 0 && adjacency.degree(u) == 2) {
+                    continue;
+                }
+                for (int slot = offsets[u]; slot < offsets[u + 1]; slot++) {
+                    if (walked.get(edgeIds[slot])) {
+                        continue;
+                    }
+                    lineStart.add(points.size());
+                    points.add(u);
+
+                    int edge = edgeIds[slot];
+                    int curr = targets[slot];
+                    walked.set(edge);
+                    while (curr != u && adjacency.degree(curr) == 2) {
+                        // Leave through the road that was not used to arrive.
+                        int next = -1;
+                        for (int s = offsets[curr]; s < offsets[curr + 1]; s++) {
+                            if (edgeIds[s] != edge) {
+                                next = s;
+                            }
+                        }
+                        if (next == -1 || walked.get(edgeIds[next])) {
+                            break;
+                        }
+                        points.add(curr);
+                        edge = edgeIds[next];
+                        walked.set(edge);
+                        curr = targets[next];
+                    }
+                    points.add(curr);
+                }
+            }
+        }
+        lineStart.add(points.size());
+
+        float[] lineXs = new float[points.size()];
+        float[] lineYs = new float[points.size()];
+        for (int p = 0; p < points.size(); p++) {
+            lineXs[p] = xs[points.get(p)];
+            lineYs[p] = ys[points.get(p)];
+        }
+        return new Level(lineStart.toArray(), lineXs, lineYs);
+    }
+
+    private static Level simplify(Level source, double tolerance) {
+        float[] xs = new float[source.xs.length];
+        float[] ys = new float[source.ys.length];
+        IntList lineStart = new IntList(source.getLineCount() + 1);
+        boolean[] keep = new boolean[0];
+        IntList stack = new IntList();
+        Set<Long> segments = new HashSet<>(); // Cell pairs that already have a short segment.
+        double squaredTolerance = tolerance * tolerance;
+        int size = 0;
+
+        for (int line = 0; line < source.getLineCount(); line++) {
+            int first = source.lineStart[line];
+            int last = source.lineStart[line + 1] - 1;
+            if (keep.length < last - first + 1) {
+                keep = new boolean[2 * (last - first + 1)];
+            }
+            Arrays.fill(keep, 0, last - first + 1, false);
+            keep[0] = true;
+            keep[last - first] = true;
+
+            // Douglas-Peucker with an explicit stack, as long roads can have many points.
+            stack.clear();
+            stack.add(first);
+            stack.add(last);
+            while (stack.size() > 0) {
+                int to = stack.pop();
+                int from = stack.pop();
+                int farthest = -1;
+                double farthestDistance = squaredTolerance;
+                for (int p = from + 1; p < to; p++) {
+                    double d = squaredDistance(source.xs[p], source.ys[p], source.xs[from], source.ys[from],
+                            source.xs[to], source.ys[to]);
+                    if (d > farthestDistance) {
+                        farthest = p;
+                        farthestDistance = d;
+                    }
+                }
+                if (farthest != -1) {
+                    keep[farthest - first] = true;
+                    stack.add(from);
+                    stack.add(farthest);
+                    stack.add(farthest);
+                    stack.add(to);
+                }
+            }
+
+            int kept = 0;
+            for (int p = first; p <= last; p++) {
+                kept += keep[p - first] ? 1 : 0;
+            }
+            if (kept == 2) {
+                long key = cellPair(source.xs[first], source.ys[first], source.xs[last], source.ys[last], tolerance);
+                if (key != -1 && !segments.add(key)) {
+                    continue;
+                }
+            }
+
+            lineStart.add(size);
+            for (int p = first; p <= last; p++) {
+                if (keep[p - first]) {
+                    xs[size] = source.xs[p];
+                    ys[size] = source.ys[p];
+                    size++;
+                }
+            }
+        }
+        lineStart.add(size);
+        return new Level(lineStart.toArray(), Arrays.copyOf(xs, size), Arrays.copyOf(ys, size));
+    }
+
+    private static long cellPair(float x1, float y1, float x2, float y2, double cellSize) {
+
+        /*
+         * Key for a short segment by the grid cell of one end and the direction
+         * to the cell of the other, the same either way round. Segments whose
+         * ends are not in the same or neighbouring cells get -1.
+         */
+
+        long ax = (long) Math.floor(x1 / cellSize);
+        long ay = (long) Math.floor(y1 / cellSize);
+        long bx = (long) Math.floor(x2 / cellSize);
+        long by = (long) Math.floor(y2 / cellSize);
+        if (Math.abs(bx - ax) > 1 || Math.abs(by - ay) > 1) {
+            return -1;
+        }
+        if (ax > bx || (ax == bx && ay > by)) {
+            long t = ax;
+            ax = bx;
+            bx = t;
+            t = ay;
+            ay = by;
+            by = t;
+        }
+        long direction = 3 * (bx - ax + 1) + (by - ay + 1);
+        return (ax & 0x3fffffff) << 34 | (ay & 0x3fffffff) << 4 | direction;
+    }
+
+    private static double squaredDistance(double x, double y, double x1, double y1, double x2, double y2) {
+
+        /* Squared distance from (x, y) to the segment from (x1, y1) to (x2, y2). */
+
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / length));
+        double px = x1 + t * dx - x;
+        double py = y1 + t * dy - y;
+        return px * px + py * py;
+    }
+
+    private static class Level {
+
+        /* Polylines stored like Adjacency: line i is points lineStart[i] .. lineStart[i + 1] - 1. */
+
+        private final int[] lineStart;
+        private final float[] xs;
+        private final float[] ys;
+        private final float[] bounds; // minX, minY, maxX, maxY of every line.
+
+        Level(int[] lineStart, float[] xs, float[] ys) {
+            this.lineStart = lineStart;
+            this.xs = xs;
+            this.ys = ys;
+            this.bounds = new float[4 * (lineStart.length - 1)];
+            for (int line = 0; line < lineStart.length - 1; line++) {
+                float minX = Float.POSITIVE_INFINITY;
+                float minY = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY;
+                float maxY = Float.NEGATIVE_INFINITY;
+                for (int p = lineStart[line]; p < lineStart[line + 1]; p++) {
+                    minX = Math.min(minX, xs[p]);
+                    minY = Math.min(minY, ys[p]);
+                    maxX = Math.max(maxX, xs[p]);
+                    maxY = Math.max(maxY, ys[p]);
+                }
+                bounds[4 * line] = minX;
+                bounds[4 * line + 1] = minY;
+                bounds[4 * line + 2] = maxX;
+                bounds[4 * line + 3] = maxY;
+            }
+        }
+
+        int getLineCount() {
+            return lineStart.length - 1;
+        }
+    }
+}
@@ -1,79 +1,134 @@
 import java.io.*;
 import java.util.*;
 import java.nio.file.*;
+import java.util.concurrent.CancellationException;
 
 public class Graph {
 
     /* Implementation of Graph. */
 
-    private Map<Node, List<Node>> adjNodes;
     private List<Edge> edges;
-    private Map<String, Node> nodes;
-    private String fileName; // name of the file from which the graph was created. Used in App.java for
-                             // setting specific properties of window.
+    private Map<String, Node> nodes; // Insertion ordered, so node indices follow the order of the file.
+    private Node[] nodeArray; // Nodes by index. Used to turn adjacency indices back into nodes.
+    private volatile Adjacency adjacency; // CSR adjacency used for routing: the roads with the updates applied.
+    private Adjacency baseAdjacency; // The roads as loaded, without updates.
+    private BitSet closedRoads = new BitSet(); // Road numbers disabled by update().
+    private Map<Integer, Double> roadWeights = new HashMap<>(); // Weights overridden by update(), by road number.
+    private List<Edge> temporaryRoads = new ArrayList<>(); // Added by update(), numbered after the loaded roads.
+    private Map<String, Integer> roadNumbers; // Road number by id, first occurrence. Created on first update.
+    private boolean landmarksOnBase; // Whether landmarks were computed without any updates.
+    private Map<String, Router> routers = new HashMap<>(); // Reused by route() between queries, by algorithm.
+    private RouteCache routeCache = new RouteCache(RouteCache.DEFAULT_CAPACITY); // Recent routes of all callers.
+    private boolean printStats; // Set by --stats: route() always searches and prints the SearchStats.
+    private double[] unitVectors; // Node positions on the unit sphere, used by AStar. Created on first use.
+    private ContractionHierarchy hierarchy; // Shared by all ContractionHierarchyRouters. Created on first use.
+    private boolean rebuildingHierarchy; // Whether a background thread builds the hierarchy after an update.
+    private Throwable hierarchyFailure; // Why the last background build failed, null when it did not.
+    private Landmarks landmarks; // Shared by all ALT routers. Created on first use.
+    private SpatialIndex spatialIndex; // Nearest node and viewport queries. Created on first use.
+    private String fileName; // name of the textfile from which the graph was created. Used in App.java for
+                             // setting specific properties of window. For a snapshot it is the name of the
+                             // textfile the snapshot was compiled from.
 
     public Graph(String fileName) {
+        this(fileName, null);
+    }
+
+    public Graph(String fileName, GraphParser.Listener listener) {
 
         /*
-         * Graph can be instantiated only from a given textfile.
-         * Reads the textfile line by line and creates nodes and edges.
+         * Graph can be instantiated only from a given file. It is either a textfile,
+         * which GraphParser reads in parallel chunks, or a binary snapshot written by
+         * --compile, which is memory mapped. The listener, if any, is told about the
+         * progress of reading a textfile and can cancel it, in which case a
+         * CancellationException is thrown.
          */
 
         this.fileName = fileName;
 
-        nodes = new HashMap<>();
+        nodes = new LinkedHashMap<>();
         edges = new ArrayList<>();
-        adjNodes = new HashMap<>();
-
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("i")) {
-                    int tab1 = line.indexOf('\t');
-                    int tab2 = line.indexOf('\t', tab1 + 1);
-                    int tab3 = line.indexOf('\t', tab2 + 1);
-
-                    String id = line.substring(tab1 + 1, tab2);
-                    double latitude = Double.parseDouble(line.substring(tab2 + 1, tab3));
-                    double longitude = Double.parseDouble(line.substring(tab3 + 1));
-
-                    Node node = new Node(id, latitude, longitude);
-                    nodes.put(id, node);
-
-                } else if (line.startsWith("r")) {
-                    int tab1 = line.indexOf('\t');
-                    int tab2 = line.indexOf('\t', tab1 + 1);
-                    int tab3 = line.indexOf('\t', tab2 + 1);
-
-                    String id = line.substring(tab1 + 1, tab2);
-                    String startNodeId = line.substring(tab2 + 1, tab3);
-                    String endNodeId = line.substring(tab3 + 1);
-
-                    Node startNode = nodes.get(startNodeId);
-                    Node endNode = nodes.get(endNodeId);
-
-                    if (startNode != null && endNode != null) {
-                        Edge edge = new Edge(startNode, endNode, id);
-                        edges.add(edge);
-                    }
-                }
-            }
 
-            for (Node node : nodes.values()) {
-                adjNodes.put(node, new ArrayList<>());
-            }
-
-            for (Edge edge : edges) {
-                Node node1 = edge.getStart();
-                Node node2 = edge.getEnd();
-
-                adjNodes.get(node1).add(node2);
-                adjNodes.get(node2).add(node1);
+        if (GraphSnapshot.isSnapshot(Paths.get(fileName))) {
+            try {
+                loadSnapshot(GraphSnapshot.read(Paths.get(fileName)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                buildAdjacency(); // Leaves an empty graph, like an unreadable textfile does.
             }
+            baseAdjacency = adjacency;
+            adjacency.getComponents(); // Computed at load, so no query has to wait for it.
+            return;
+        }
 
+        try {
+            GraphParser.parse(Paths.get(fileName), nodes, edges, listener);
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        buildAdjacency();
+        baseAdjacency = adjacency;
+        adjacency.getComponents(); // Computed at load, so no query has to wait for it.
+    }
+
+    private void loadSnapshot(GraphSnapshot snapshot) {
+
+        /*
+         * Creates nodes and edges from a snapshot. Weights and adjacency were
+         * precomputed when the snapshot was written, so nothing is parsed or
+         * recomputed. The file name is the one of the original textfile, which
+         * keeps the window settings in App working.
+         */
+
+        fileName = snapshot.getSourceName();
+
+        String[] nodeIds = snapshot.getNodeIds();
+        double[] latitudes = snapshot.getLatitudes();
+        double[] longitudes = snapshot.getLongitudes();
+        nodeArray = new Node[nodeIds.length];
+        for (int i = 0; i < nodeArray.length; i++) {
+            Node node = new Node(nodeIds[i], latitudes[i], longitudes[i]);
+            node.setIndex(i);
+            nodeArray[i] = node;
+            nodes.put(nodeIds[i], node);
+        }
+
+        String[] edgeIds = snapshot.getEdgeIds();
+        int[] starts = snapshot.getEdgeStarts();
+        int[] ends = snapshot.getEdgeEnds();
+        double[] weights = snapshot.getEdgeWeights();
+        edges = new ArrayList<>(edgeIds.length);
+        for (int e = 0; e < edgeIds.length; e++) {
+            edges.add(new Edge(nodeArray[starts[e]], nodeArray[ends[e]], edgeIds[e], weights[e]));
+        }
+
+        adjacency = snapshot.getAdjacency();
+    }
+
+    private void buildAdjacency() {
+
+        /*
+         * Numbers the nodes and packs the edges into a CSR adjacency. Weights are
+         * copied from the edges so routing never has to look an Edge up.
+         */
+
+        nodeArray = nodes.values().toArray(new Node[0]);
+        for (int i = 0; i < nodeArray.length; i++) {
+            nodeArray[i].setIndex(i);
+        }
+
+        int[] starts = new int[edges.size()];
+        int[] ends = new int[edges.size()];
+        double[] weights = new double[edges.size()];
+        for (int e = 0; e < edges.size(); e++) {
+            Edge edge = edges.get(e);
+            starts[e] = edge.getStart().getIndex();
+            ends[e] = edge.getEnd().getIndex();
+            weights[e] = edge.getWeight();
+        }
+
+        adjacency = Adjacency.build(nodeArray.length, starts, ends, weights);
     }
 
     public Node getNodeById(String id) {
@@ -113,7 +168,196 @@ public class Graph {
     }
 
     public List<Node> getAdjacentNodes(Node node) {
-        return adjNodes.get(node);
+
+        /* Compatibility view over the adjacency. Routing walks the arrays directly. */
+
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+        int u = node.getIndex();
+
+        List<Node> neighbors = new ArrayList<>(offsets[u + 1] - offsets[u]);
+        for (int slot = offsets[u]; slot < offsets[u + 1]; slot++) {
+            neighbors.add(nodeArray[targets[slot]]);
+        }
+        return neighbors;
+    }
+
+    public Adjacency getAdjacency() {
+        return adjacency;
+    }
+
+    public Adjacency getBaseAdjacency() {
+        return baseAdjacency;
+    }
+
+    public boolean hasUpdates() {
+        return adjacency != baseAdjacency;
+    }
+
+    public Components getComponents() {
+
+        /* The components of the current version of the roads. */
+
+        return adjacency.getComponents();
+    }
+
+    public synchronized void update(RoadUpdates batch) {
+
+        /*
+         * Applies a batch of road changes on top of the roads as loaded. The
+         * loaded roads and the current Adjacency are never modified: the changes
+         * are made to copies of the overlay, a new Adjacency is built from the
+         * loaded roads and the overlay, and it replaces the current one in a
+         * single write. A query that already started keeps the version it began
+         * with. If a change names an unknown road or intersection, or a weight
+         * is too small, an IllegalArgumentException is thrown and nothing
+         * changes.
+         *
+         * Precomputed data that depends on the roads is dropped: the route cache
+         * always, the landmarks only when the changes can make a distance shorter
+         * than on the loaded roads, and rebuilt on next use. Closing roads and
+         * slowing them down only make distances longer, so the loaded landmark
+         * bounds stay lower bounds. The contraction hierarchy is always dropped,
+         * and if there was one it is rebuilt on a background thread, which takes
+         * minutes on a large map. Until it is done, ContractionHierarchyRouters
+         * answer with a bidirectional Dijkstra instead of waiting for it.
+         */
+
+        if (roadNumbers == null) {
+            roadNumbers = new HashMap<>();
+            for (int e = 0; e < edges.size(); e++) {
+                roadNumbers.putIfAbsent(edges.get(e).getID(), e);
+            }
+        }
+        BitSet closed = (BitSet) closedRoads.clone();
+        Map<Integer, Double> weights = new HashMap<>(roadWeights);
+        List<Edge> temporary = new ArrayList<>(temporaryRoads);
+        Map<String, Integer> numbers = new HashMap<>(roadNumbers);
+
+        for (RoadUpdates.Update update : batch.getUpdates()) {
+            String kind = update.getKind();
+            if (kind.equals("reset")) {
+                closed.clear();
+                weights.clear();
+                for (Edge road : temporary) {
+                    numbers.remove(road.getID());
+                }
+                temporary.clear();
+                continue;
+            }
+            if (kind.equals("add")) {
+                Node start = nodeOrFail(update.getStart());
+                Node end = nodeOrFail(update.getEnd());
+                if (numbers.containsKey(update.getRoad())) {
+                    throw new IllegalArgumentException("Road " + update.getRoad() + " already exists");
+                }
+                Edge road = new Edge(start, end, update.getRoad());
+                if (!Double.isNaN(update.getMiles())) {
+                    checkWeight(road, update.getMiles());
+                    road = new Edge(start, end, update.getRoad(), update.getMiles());
+                }
+                numbers.put(road.getID(), edges.size() + temporary.size());
+                temporary.add(road);
+                continue;
+            }
+
+            Integer number = numbers.get(update.getRoad());
+            if (number == null) {
+                throw new IllegalArgumentException("Unknown road " + update.getRoad());
+            }
+            if (kind.equals("disable")) {
+                closed.set(number);
+            } else if (kind.equals("enable")) {
+                closed.clear(number);
+            } else {
+                Edge road = number < edges.size() ? edges.get(number) : temporary.get(number - edges.size());
+                checkWeight(road, update.getMiles());
+                weights.put(number, update.getMiles());
+            }
+        }
+
+        // Only the roads that are open in the new version count.
+        boolean unchanged = temporary.isEmpty();
+        boolean longer = true; // No distance can be shorter than on the loaded roads.
+        int open = 0;
+        for (int e = 0; e < edges.size() + temporary.size(); e++) {
+            if (closed.get(e)) {
+                unchanged = false;
+                continue;
+            }
+            open++;
+            Double weight = weights.get(e);
+            if (e >= edges.size()) {
+                longer = false;
+            } else if (weight != null && weight != edges.get(e).getWeight()) {
+                unchanged = false;
+                longer &= weight > edges.get(e).getWeight();
+            }
+        }
+
+        Adjacency next = baseAdjacency;
+        if (!unchanged) {
+            int[] starts = new int[open];
+            int[] ends = new int[open];
+            double[] roadLengths = new double[open];
+            int[] roads = new int[open];
+            int k = 0;
+            for (int e = 0; e < edges.size() + temporary.size(); e++) {
+                if (!closed.get(e)) {
+                    Edge road = e < edges.size() ? edges.get(e) : temporary.get(e - edges.size());
+                    starts[k] = road.getStart().getIndex();
+                    ends[k] = road.getEnd().getIndex();
+                    roadLengths[k] = weights.getOrDefault(e, road.getWeight());
+                    roads[k++] = e;
+                }
+            }
+            next = Adjacency.build(nodeArray.length, starts, ends, roadLengths, roads);
+        }
+        next.getComponents(); // Before the switch, so queries on the new version do not wait for it.
+
+        closedRoads = closed;
+        roadWeights = weights;
+        temporaryRoads = temporary;
+        roadNumbers = numbers;
+        adjacency = next;
+
+        routeCache.invalidate();
+        if (hierarchy != null || hierarchyFailure != null) {
+            hierarchyFailure = null; // New roads, so a failed build is tried again.
+            rebuildHierarchy();
+        }
+        hierarchy = null;
+        if (!landmarksOnBase || !longer) {
+            landmarks = null;
+        }
+    }
+
+    private Node nodeOrFail(String id) {
+        Node node = nodes.get(id);
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown intersection " + id);
+        }
+        return node;
+    }
+
+    private static void checkWeight(Edge road, double miles) {
+
+        /* A road can not be shorter than a straight line, or the A* bound would overestimate. */
+
+        double straight = Edge.haversine(road.getStart().getLatitude(), road.getStart().getLongitude(),
+                road.getEnd().getLatitude(), road.getEnd().getLongitude());
+        if (!(miles >= straight * (1 - 1e-9))) {
+            throw new IllegalArgumentException("Road " + road.getID() + " can not be shorter than " + straight
+                    + " miles");
+        }
+    }
+
+    public Node getNode(int index) {
+        return nodeArray[index];
+    }
+
+    public int getNodeCount() {
+        return nodeArray.length;
     }
 
     public List<Edge> getEdges() {
@@ -121,7 +365,7 @@ public class Graph {
     }
 
     public List<Node> getNodes() {
-        return new ArrayList<>(nodes.values());
+        return new ArrayList<>(Arrays.asList(nodeArray));
     }
 
     public String getFileName() {
@@ -132,95 +376,191 @@ public class Graph {
         this.fileName = FileName;
     }
 
-    private Edge getEdge(Node start, Node end) {
-        for (Edge edge : edges) {
-            if (edge.getStart().equals(start) && edge.getEnd().equals(end) ||
-                    edge.getStart().equals(end) && edge.getEnd().equals(start)) {
-                return edge;
+    public synchronized double[] getUnitVectors() {
+
+        /*
+         * x, y, z of every node on the unit sphere, three entries per node index.
+         * Computed once and shared by all AStar instances.
+         */
+
+        if (unitVectors == null) {
+            double[] vectors = new double[3 * nodeArray.length];
+            for (int i = 0; i < nodeArray.length; i++) {
+                double latitude = Math.toRadians(nodeArray[i].getLatitude());
+                double longitude = Math.toRadians(nodeArray[i].getLongitude());
+                vectors[3 * i] = Math.cos(latitude) * Math.cos(longitude);
+                vectors[3 * i + 1] = Math.cos(latitude) * Math.sin(longitude);
+                vectors[3 * i + 2] = Math.sin(latitude);
             }
+            unitVectors = vectors;
         }
-        return null;
+        return unitVectors;
     }
 
-    public List<Node> dijkstra(Graph graph, Node source, Node destination) {
+    public synchronized ContractionHierarchy getContractionHierarchy() {
 
         /*
-         * Implementation of lazy Dijkstra's algorithm to save space. Saves storage
-         * space, instead of storing all nodes in
-         * the queue initially, only the closest node and its neighbors are stored.
+         * Loaded from, or built and saved to, the .ch file next to the map file.
+         * After update() it is built again for the current roads, and not saved.
+         * That build runs on a background thread, which this waits for without
+         * holding the lock on the graph. If a build failed, it is tried again,
+         * and an IllegalStateException is thrown when that fails too.
          */
 
-        Map<Node, Double> distance = new HashMap<>(); // Standard for Dijkstra's algorithm. Stores all known distances
-                                                      // from source.
-        Map<Node, Node> previous = new HashMap<>(); // Saves the route, periodically updated if a more optimal route is
-                                                    // found
-        Map<Node, Boolean> visited = new HashMap<>(); // Visited nodes to prevent revisiting.
-        PriorityQueue<Node> pq = new PriorityQueue<>(Comparator.comparingDouble(distance::get)); // Extract the closest
-                                                                                                 // node during each
-                                                                                                 // iteration
-
-        // Initialize all distances to infinity and visited to false
-        for (Node node : graph.getNodes()) {
-            distance.put(node, Double.POSITIVE_INFINITY);
-            visited.put(node, false);
+        if (hierarchy == null && hasUpdates()) {
+            if (!rebuildingHierarchy) {
+                hierarchyFailure = null;
+            }
+            rebuildHierarchy();
+        }
+        while (rebuildingHierarchy) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted waiting for the hierarchy");
+            }
         }
+        if (hierarchyFailure != null) {
+            throw new IllegalStateException("Could not rebuild the contraction hierarchy", hierarchyFailure);
+        }
+        if (hierarchy == null) {
+            hierarchy = ContractionHierarchy.forGraph(this);
+        }
+        return hierarchy;
+    }
 
-        // Distance from source to itself is 0
-        distance.put(source, 0.0);
+    public synchronized ContractionHierarchy getBuiltContractionHierarchy() {
 
-        // Add source node to priority queue
-        pq.offer(source);
+        /*
+         * The hierarchy of the current roads, or null while it is missing or being
+         * rebuilt. Throws an IllegalStateException when the last build failed,
+         * until getContractionHierarchy() or the next update() tries again.
+         */
 
-        while (!pq.isEmpty()) {
-            // Initially the source node is polled, afterwards the closest sequential node
-            // is polled. Saves storage space.
-            Node curr = pq.poll();
+        if (rebuildingHierarchy) {
+            return null;
+        }
+        if (hierarchyFailure != null) {
+            throw new IllegalStateException("Could not rebuild the contraction hierarchy", hierarchyFailure);
+        }
+        return hierarchy;
+    }
 
-            // If destination is reached, print path and return.
-            if (curr == destination) {
-                List<Node> path = new ArrayList<>();
-                Node temp = destination;
-                double totalWeight = 0;
+    private void rebuildHierarchy() {
 
-                while (temp != null) {
-                    path.add(temp);
-                    Node prev = previous.get(temp);
+        /*
+         * Starts building the hierarchy of the current roads on a background
+         * thread, unless one already runs. The build does not hold the lock on the
+         * graph, so queries and further updates go on meanwhile. When the roads
+         * changed again during a build, its result is thrown away and the thread
+         * starts over with the latest version.
+         */
 
-                    if (prev != null) {
-                        totalWeight += graph.getEdge(prev, temp).getWeight();
+        if (rebuildingHierarchy) {
+            return;
+        }
+        rebuildingHierarchy = true;
+        Thread builder = new Thread(() -> {
+            ContractionHierarchy built = null;
+            Adjacency version = null;
+            try {
+                while (true) {
+                    synchronized (this) {
+                        if (built != null && version == adjacency) {
+                            hierarchy = built;
+                            return;
+                        }
+                        version = adjacency;
                     }
-
-                    temp = prev;
+                    built = ContractionHierarchy.build(version);
                 }
-
-                Collections.reverse(path);
-                for (Node n : path) {
-                    System.out.print(n.getID() + " ");
+            } catch (RuntimeException | OutOfMemoryError e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    hierarchyFailure = e; // Reported by the routers until the hierarchy is asked for again.
                 }
-                System.out.println("Distance travelled: " + totalWeight + " miles");
-                return path;
-            }
-
-            if (!visited.get(curr)) {
-                visited.put(curr, true);
-                // edge relaxation.
-                for (Node neighbor : graph.getAdjacentNodes(curr)) {
-                    double edgeWeight = graph.getEdge(curr, neighbor).getWeight();
-                    double alt = distance.get(curr) + edgeWeight;
-
-                    if (alt < distance.get(neighbor)) {
-                        distance.put(neighbor, alt);
-                        // update the current route if the path through the new neighbor is more
-                        // optimal.
-                        previous.put(neighbor, curr);
-                        pq.offer(neighbor);
-                    }
+            } finally {
+                synchronized (this) {
+                    rebuildingHierarchy = false;
+                    notifyAll();
                 }
             }
+        }, "hierarchy-rebuild");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    public synchronized Landmarks getLandmarks() {
+
+        /*
+         * Loaded from, or computed and saved to, the .alt file next to the map
+         * file. After update() the tables may be kept, see there.
+         */
+
+        if (landmarks == null) {
+            landmarks = Landmarks.forGraph(this);
+            landmarksOnBase = !hasUpdates();
+        }
+        return landmarks;
+    }
+
+    public synchronized SpatialIndex getSpatialIndex() {
+        if (spatialIndex == null) {
+            spatialIndex = new SpatialIndex(this);
+        }
+        return spatialIndex;
+    }
+
+    public void setPrintStats(boolean printStats) {
+        this.printStats = printStats;
+    }
+
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    public Node getNearestNode(double latitude, double longitude) {
+
+        /* Used to snap coordinates given on the command line to an intersection. */
+
+        int index = getSpatialIndex().nearest(latitude, longitude);
+        return index == -1 ? null : nodeArray[index];
+    }
+
+    public List<Node> dijkstra(Graph graph, Node source, Node destination) {
+        return graph.route(source, destination, "dijkstra");
+    }
+
+    public List<Node> route(Node source, Node destination, String algorithm) {
+
+        /*
+         * Finds the shortest route with the given algorithm (see Router.create) and
+         * prints it. The router keeps its search arrays between calls, so repeated
+         * queries do not allocate per node, and routes asked for before come from
+         * the route cache.
+         */
+
+        Router router = routers.computeIfAbsent(algorithm, name -> Router.create(this, name));
+
+        RouteResult result;
+        if (printStats) {
+            result = router.route(source.getIndex(), destination.getIndex());
+            System.out.println("Search " + router.getStats());
+        } else {
+            result = routeCache.route(router, algorithm, source.getIndex(), destination.getIndex());
+        }
+        if (result == null) {
+            System.out.println("No path found from " + source.getID() + " to " + destination.getID());
+            return null;
         }
 
-        System.out.println("No path found from " + source + " to " + destination);
-        return null;
+        List<Node> path = result.getNodes(this);
+        for (Node n : path) {
+            System.out.print(n.getID() + " ");
+        }
+        System.out.println("Distance travelled: " + result.getDistance() + " miles");
+        return path;
     }
 
 }
@@ -0,0 +1,54 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+public class GraphGenerator {
+
+    /*
+     * Writes synthetic maps in the i/r textfile format, so loading and routing can
+     * be measured without the real map files.
+     * Usage: java GraphGenerator <output> <width> <height> [seed]
+     */
+
+    public static void main(String[] args) throws IOException {
+        int width = Integer.parseInt(args[1]);
+        int height = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        writeGrid(args[0], width, height, seed);
+    }
+
+    public static void writeGrid(String fileName, int width, int height, long seed) throws IOException {
+
+        /*
+         * A width x height grid of intersections around Rochester, roughly 100 m
+         * apart with a little jitter. Every grid road exists with probability 0.85,
+         * so routes have to go around gaps like on a real map.
+         */
+
+        Random random = new Random(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName))) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double latitude = 43.0 + y * 0.0009 + (random.nextDouble() - 0.5) * 0.0004;
+                    double longitude = -77.8 + x * 0.0012 + (random.nextDouble() - 0.5) * 0.0004;
+                    writer.write(String.format(Locale.ROOT, "i\tI%d_%d\t%.6f\t%.6f\n", x, y, latitude, longitude));
+                }
+            }
+
+            int road = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (x + 1 < width && random.nextDouble() < 0.85) {
+                        writer.write("r\tR" + road++ + "\tI" + x + "_" + y + "\tI" + (x + 1) + "_" + y + "\n");
+                    }
+                    if (y + 1 < height && random.nextDouble() < 0.85) {
+                        writer.write("r\tR" + road++ + "\tI" + x + "_" + y + "\tI" + x + "_" + (y + 1) + "\n");
+                    }
+                }
+            }
+        }
+    }
+}
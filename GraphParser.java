@@ -0,0 +1,349 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class GraphParser {
+
+    /*
+     * Reader for the textfile format: "i <tab> id <tab> latitude <tab> longitude"
+     * lines for intersections and "r <tab> id <tab> start id <tab> end id" lines
+     * for roads.
+     *
+     * parse() splits the file into newline aligned chunks, memory maps each chunk
+     * and parses the chunks in parallel on the common fork-join pool, reading the
+     * bytes directly. It runs in two passes: all intersections are resolved first,
+     * then the roads, so a road is kept whenever both of its ends exist anywhere
+     * in the file. Roads that refer to unknown intersections are dropped.
+     *
+     * A Listener passed to parse() is told about every parsed chunk and can
+     * cancel the parse.
+     *
+     * parseSequential() is the original single threaded reader. It is kept for
+     * comparison in Benchmark.
+     */
+
+    private static final int MIN_CHUNK_SIZE = 1 << 20; // Smaller files are not worth splitting further.
+    private static final int MAX_CHUNK_SIZE = 1 << 30; // A single mapping is limited to 2 GB.
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    public interface Listener {
+
+        /*
+         * Told how far parse() got, so a window can show the map while it loads.
+         * The methods are called from the parsing threads, concurrently.
+         */
+
+        void progress(String stage, int done, int total); // done of total chunks of the stage are parsed.
+
+        void nodesParsed(Map<String, Node> nodes); // All intersections, before any road is parsed.
+
+        void roadsParsed(List<Edge> roads); // The roads of one chunk.
+
+        boolean isCancelled(); // Checked after every chunk. When set, parse() throws CancellationException.
+    }
+
+    public static void parse(Path path, Map<String, Node> nodes, List<Edge> edges) throws IOException {
+        parse(path, nodes, edges, null);
+    }
+
+    public static void parse(Path path, Map<String, Node> nodes, List<Edge> edges, Listener listener)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(channel);
+            AtomicInteger done = new AtomicInteger();
+
+            // First pass: intersections. Every chunk also remembers where its roads are.
+            List<List<Node>> parsedNodes = chunks.parallelStream()
+                    .map(chunk -> {
+                        List<Node> chunkNodes = chunk.parseNodes();
+                        report(listener, "Reading intersections", done.incrementAndGet(), chunks.size());
+                        return chunkNodes;
+                    })
+                    .collect(Collectors.toList());
+            for (List<Node> chunkNodes : parsedNodes) {
+                for (Node node : chunkNodes) {
+                    nodes.put(node.getID(), node);
+                }
+            }
+            if (listener != null) {
+                listener.nodesParsed(nodes);
+            }
+
+            // Second pass: roads, resolved against the complete node map.
+            done.set(0);
+            List<List<Edge>> parsedEdges = chunks.parallelStream()
+                    .map(chunk -> {
+                        List<Edge> chunkEdges = chunk.parseEdges(nodes);
+                        if (listener != null) {
+                            listener.roadsParsed(chunkEdges);
+                        }
+                        report(listener, "Reading roads", done.incrementAndGet(), chunks.size());
+                        return chunkEdges;
+                    })
+                    .collect(Collectors.toList());
+            for (List<Edge> chunkEdges : parsedEdges) {
+                edges.addAll(chunkEdges);
+            }
+        }
+    }
+
+    public static void parseSequential(Path path, Map<String, Node> nodes, List<Edge> edges) throws IOException {
+
+        /* Reads the textfile line by line and creates nodes and edges. */
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("i")) {
+                    int tab1 = line.indexOf('\t');
+                    int tab2 = line.indexOf('\t', tab1 + 1);
+                    int tab3 = line.indexOf('\t', tab2 + 1);
+
+                    String id = line.substring(tab1 + 1, tab2);
+                    double latitude = Double.parseDouble(line.substring(tab2 + 1, tab3));
+                    double longitude = Double.parseDouble(line.substring(tab3 + 1));
+
+                    Node node = new Node(id, latitude, longitude);
+                    nodes.put(id, node);
+
+                } else if (line.startsWith("r")) {
+                    int tab1 = line.indexOf('\t');
+                    int tab2 = line.indexOf('\t', tab1 + 1);
+                    int tab3 = line.indexOf('\t', tab2 + 1);
+
+                    String id = line.substring(tab1 + 1, tab2);
+                    String startNodeId = line.substring(tab2 + 1, tab3);
+                    String endNodeId = line.substring(tab3 + 1);
+
+                    Node startNode = nodes.get(startNodeId);
+                    Node endNode = nodes.get(endNodeId);
+
+                    if (startNode != null && endNode != null) {
+                        Edge edge = new Edge(startNode, endNode, id);
+                        edges.add(edge);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void report(Listener listener, String stage, int done, int total) {
+        if (listener == null) {
+            return;
+        }
+        if (listener.isCancelled()) {
+            throw new CancellationException("Loading cancelled");
+        }
+        listener.progress(stage, done, total);
+    }
+
+    private static List<Chunk> split(FileChannel channel) throws IOException {
+
+        /*
+         * Cuts the file into roughly equal chunks, moving every cut forward to just
+         * after the next newline so no line is split between two chunks.
+         */
+
+        long size = channel.size();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long chunkCount = Math.max(1, Math.min(size / MIN_CHUNK_SIZE, 4L * parallelism));
+        chunkCount = Math.max(chunkCount, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+        List<Chunk> chunks = new ArrayList<>();
+        long start = 0;
+        for (long k = 1; k <= chunkCount && start < size; k++) {
+            long end = k == chunkCount ? size : nextLineStart(channel, Math.max(start, size * k / chunkCount));
+            if (end > start) {
+                chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start)));
+            }
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static class Chunk {
+
+        /*
+         * One newline aligned, memory mapped piece of the file. Lines are parsed
+         * straight from the mapped bytes; only ids are turned into Strings.
+         */
+
+        private final MappedByteBuffer buffer;
+        private int[] roadLines = new int[64]; // Start of every 'r' line, found in the first pass.
+        private int roadCount;
+        private byte[] scratch = new byte[64]; // Reused when decoding ids and slow path numbers.
+
+        Chunk(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        List<Node> parseNodes() {
+            List<Node> nodes = new ArrayList<>();
+            int limit = buffer.limit();
+            int lineStart = 0;
+
+            while (lineStart < limit) {
+                int lineEnd = indexOf((byte) '\n', lineStart, limit);
+                byte type = buffer.get(lineStart);
+
+                if (type == 'i') {
+                    int end = trimEnd(lineStart, lineEnd);
+                    int tab1 = indexOf((byte) '\t', lineStart, end);
+                    int tab2 = indexOf((byte) '\t', tab1 + 1, end);
+                    int tab3 = indexOf((byte) '\t', tab2 + 1, end);
+
+                    if (tab3 < end) {
+                        String id = string(tab1 + 1, tab2);
+                        double latitude = parseDouble(tab2 + 1, tab3);
+                        double longitude = parseDouble(tab3 + 1, end);
+                        nodes.add(new Node(id, latitude, longitude));
+                    }
+                } else if (type == 'r') {
+                    if (roadCount == roadLines.length) {
+                        roadLines = Arrays.copyOf(roadLines, 2 * roadCount);
+                    }
+                    roadLines[roadCount++] = lineStart;
+                }
+
+                lineStart = lineEnd + 1;
+            }
+            return nodes;
+        }
+
+        List<Edge> parseEdges(Map<String, Node> nodes) {
+            List<Edge> edges = new ArrayList<>(roadCount);
+            int limit = buffer.limit();
+
+            for (int k = 0; k < roadCount; k++) {
+                int lineStart = roadLines[k];
+                int end = trimEnd(lineStart, indexOf((byte) '\n', lineStart, limit));
+                int tab1 = indexOf((byte) '\t', lineStart, end);
+                int tab2 = indexOf((byte) '\t', tab1 + 1, end);
+                int tab3 = indexOf((byte) '\t', tab2 + 1, end);
+
+                if (tab3 < end) {
+                    Node startNode = nodes.get(string(tab2 + 1, tab3));
+                    Node endNode = nodes.get(string(tab3 + 1, end));
+
+                    if (startNode != null && endNode != null) {
+                        edges.add(new Edge(startNode, endNode, string(tab1 + 1, tab2)));
+                    }
+                }
+            }
+            return edges;
+        }
+
+        private int indexOf(byte b, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer.get(i) == b) {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+        private int trimEnd(int from, int to) {
+            while (to > from && buffer.get(to - 1) == '\r') {
+                to--;
+            }
+            return to;
+        }
+
+        private String string(int from, int to) {
+            int length = to - from;
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, 2 * scratch.length)];
+            }
+            buffer.get(from, scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private double parseDouble(int from, int to) {
+
+            /*
+             * Parses a plain decimal such as -77.612345 without allocating. When the
+             * digits fit in a long below 2^53 and the power of ten is at most 22,
+             * one exact multiplication or division gives the correctly rounded
+             * result, the same as Double.parseDouble. Anything else (exponents, very
+             * long numbers, malformed input) falls back to Double.parseDouble.
+             */
+
+            int i = from;
+            boolean negative = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negative = buffer.get(i) == '-';
+                i++;
+            }
+
+            long mantissa = 0;
+            int digits = 0; // Significant digits in mantissa.
+            int exponent = 0;
+            boolean seenDigit = false;
+            boolean seenDot = false;
+
+            for (; i < to; i++) {
+                byte c = buffer.get(i);
+                if (c >= '0' && c <= '9') {
+                    seenDigit = true;
+                    if (digits == 18) {
+                        return Double.parseDouble(string(from, to));
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (seenDot) {
+                        exponent--;
+                    }
+                } else if (c == '.' && !seenDot) {
+                    seenDot = true;
+                } else {
+                    return Double.parseDouble(string(from, to));
+                }
+            }
+
+            if (!seenDigit || exponent < -22 || mantissa >= 1L << 53) {
+                return Double.parseDouble(string(from, to));
+            }
+
+            double value = mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+    }
+}
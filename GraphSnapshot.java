@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class GraphSnapshot {
+
+    /*
+     * Binary snapshot of a Graph, written by --compile and read back through a
+     * memory map instead of parsing the text file again.
+     *
+     * Layout (little endian):
+     * header: magic, version, node count, edge count, payload length, CRC32 of
+     * the payload.
+     * payload: source file name, node latitudes and longitudes, node id table,
+     * edge start/end indices and weights, edge id table, and the CSR adjacency
+     * (offsets, targets, weights, edge ids).
+     * A string table is an int[count + 1] of byte offsets followed by the UTF-8
+     * bytes of all strings.
+     *
+     * The whole file is mapped at once, so a snapshot is limited to 2 GB.
+     */
+
+    public static final int MAGIC = 0x48505247; // "GRPH" in little endian.
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private String sourceName;
+    private double[] latitudes;
+    private double[] longitudes;
+    private String[] nodeIds;
+    private int[] edgeStarts;
+    private int[] edgeEnds;
+    private double[] edgeWeights;
+    private String[] edgeIds;
+    private Adjacency adjacency;
+
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    public double[] getLatitudes() {
+        return latitudes;
+    }
+
+    public double[] getLongitudes() {
+        return longitudes;
+    }
+
+    public String[] getNodeIds() {
+        return nodeIds;
+    }
+
+    public int[] getEdgeStarts() {
+        return edgeStarts;
+    }
+
+    public int[] getEdgeEnds() {
+        return edgeEnds;
+    }
+
+    public double[] getEdgeWeights() {
+        return edgeWeights;
+    }
+
+    public String[] getEdgeIds() {
+        return edgeIds;
+    }
+
+    public Adjacency getAdjacency() {
+        return adjacency;
+    }
+
+    public static boolean isSnapshot(Path path) {
+
+        /* Used by Graph to decide whether a file is a snapshot or a text graph. */
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void write(Graph graph, Path path) throws IOException {
+        List<Node> nodes = graph.getNodes();
+        List<Edge> edges = graph.getEdges();
+        Adjacency adjacency = graph.getBaseAdjacency(); // Road updates are not part of a snapshot.
+        int n = nodes.size();
+        int m = edges.size();
+
+        byte[] sourceName = graph.getFileName().getBytes(StandardCharsets.UTF_8);
+        byte[][] nodeIds = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            nodeIds[i] = nodes.get(i).getID().getBytes(StandardCharsets.UTF_8);
+        }
+        byte[][] edgeIds = new byte[m][];
+        for (int e = 0; e < m; e++) {
+            edgeIds[e] = edges.get(e).getID().getBytes(StandardCharsets.UTF_8);
+        }
+
+        long payloadLength = 4L + sourceName.length
+                + 16L * n
+                + stringTableSize(nodeIds)
+                + 16L * m
+                + stringTableSize(edgeIds)
+                + 4L * (n + 1) + 32L * m;
+        if (HEADER_SIZE + payloadLength > Integer.MAX_VALUE) {
+            throw new IOException("Graph is too large for a snapshot: " + payloadLength + " bytes");
+        }
+
+        Files.deleteIfExists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + payloadLength);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(HEADER_SIZE);
+
+            buffer.putInt(sourceName.length).put(sourceName);
+            for (Node node : nodes) {
+                buffer.putDouble(node.getLatitude());
+            }
+            for (Node node : nodes) {
+                buffer.putDouble(node.getLongitude());
+            }
+            putStrings(buffer, nodeIds);
+
+            for (Edge edge : edges) {
+                buffer.putInt(edge.getStart().getIndex());
+            }
+            for (Edge edge : edges) {
+                buffer.putInt(edge.getEnd().getIndex());
+            }
+            for (Edge edge : edges) {
+                buffer.putDouble(edge.getWeight());
+            }
+            putStrings(buffer, edgeIds);
+
+            buffer.asIntBuffer().put(adjacency.getOffsets());
+            buffer.position(buffer.position() + 4 * (n + 1));
+            buffer.asIntBuffer().put(adjacency.getTargets());
+            buffer.position(buffer.position() + 8 * m);
+            buffer.asDoubleBuffer().put(adjacency.getWeights());
+            buffer.position(buffer.position() + 16 * m);
+            buffer.asIntBuffer().put(adjacency.getEdgeIds());
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, n);
+            buffer.putInt(12, m);
+            buffer.putLong(16, payloadLength);
+            buffer.putLong(24, checksum(buffer, payloadLength));
+            buffer.force();
+        }
+    }
+
+    public static GraphSnapshot read(Path path) throws IOException {
+
+        /*
+         * Maps the snapshot and copies the sections into arrays with bulk gets. The
+         * checksum is verified before anything is decoded.
+         */
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a graph snapshot");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a graph snapshot");
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException(path + " has snapshot version " + version + ", expected " + VERSION
+                        + ". Recompile it with --compile");
+            }
+            int n = buffer.getInt(8);
+            int m = buffer.getInt(12);
+            long payloadLength = buffer.getLong(16);
+            if (payloadLength != size - HEADER_SIZE) {
+                throw new IOException(path + " is truncated");
+            }
+            if (buffer.getLong(24) != checksum(buffer, payloadLength)) {
+                throw new IOException(path + " is corrupt: checksum mismatch");
+            }
+
+            GraphSnapshot snapshot = new GraphSnapshot();
+            buffer.position(HEADER_SIZE);
+
+            byte[] sourceName = new byte[buffer.getInt()];
+            buffer.get(sourceName);
+            snapshot.sourceName = new String(sourceName, StandardCharsets.UTF_8);
+
+            snapshot.latitudes = getDoubles(buffer, n);
+            snapshot.longitudes = getDoubles(buffer, n);
+            snapshot.nodeIds = getStrings(buffer, n);
+
+            snapshot.edgeStarts = getInts(buffer, m);
+            snapshot.edgeEnds = getInts(buffer, m);
+            snapshot.edgeWeights = getDoubles(buffer, m);
+            snapshot.edgeIds = getStrings(buffer, m);
+
+            int[] offsets = getInts(buffer, n + 1);
+            int[] targets = getInts(buffer, 2 * m);
+            double[] weights = getDoubles(buffer, 2 * m);
+            int[] slotEdgeIds = getInts(buffer, 2 * m);
+            snapshot.adjacency = new Adjacency(offsets, targets, weights, slotEdgeIds);
+
+            return snapshot;
+        }
+    }
+
+    private static long checksum(ByteBuffer buffer, long payloadLength) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(HEADER_SIZE).limit((int) (HEADER_SIZE + payloadLength)));
+        return crc.getValue();
+    }
+
+    private static long stringTableSize(byte[][] strings) {
+        long size = 4L * (strings.length + 1);
+        for (byte[] s : strings) {
+            size += s.length;
+        }
+        return size;
+    }
+
+    private static void putStrings(ByteBuffer buffer, byte[][] strings) {
+        int offset = 0;
+        buffer.putInt(offset);
+        for (byte[] s : strings) {
+            offset += s.length;
+            buffer.putInt(offset);
+        }
+        for (byte[] s : strings) {
+            buffer.put(s);
+        }
+    }
+
+    private static String[] getStrings(ByteBuffer buffer, int count) {
+        int[] offsets = getInts(buffer, count + 1);
+        byte[] bytes = new byte[offsets[count]];
+        buffer.get(bytes);
+
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    private static double[] getDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * count);
+        return values;
+    }
+}
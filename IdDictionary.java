@@ -0,0 +1,143 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class IdDictionary {
+
+    /*
+     * String ids kept outside the Java heap, numbered in the order they were
+     * added. All ids are stored as UTF-8 back to back in one direct buffer, with
+     * an int offset per id, so a million ids cost their bytes plus 4 bytes each
+     * instead of a String, a byte[] and a map entry each.
+     *
+     * Lookups by id go through an open-addressing hash table of ints (id number
+     * plus one, 0 for a free slot) with linear probing, also off-heap. It is kept
+     * at most half full, so a probe sequence is short. Adding an id that is
+     * already present still numbers it, but lookups keep finding the first one,
+     * the same as a HashMap from which the later duplicate was never put.
+     */
+
+    private ByteBuffer bytes = CompactGraph.allocate(1 << 12); // UTF-8 of all ids, back to back.
+    private ByteBuffer offsets = CompactGraph.allocate(4 * 256); // Start of id i at 4 * i, end at 4 * (i + 1).
+    private ByteBuffer table = CompactGraph.allocate(4 * 512); // Id number + 1 per slot, 0 when free.
+    private int size;
+    private int used; // End of the used part of bytes.
+
+    public int add(String id) {
+
+        /* Appends id and returns its number. */
+
+        byte[] utf8 = id.getBytes(StandardCharsets.UTF_8);
+        if (used + utf8.length > bytes.capacity()) {
+            bytes = CompactGraph.grow(bytes, (long) used + utf8.length);
+        }
+        if (4L * (size + 2) > offsets.capacity()) {
+            offsets = CompactGraph.grow(offsets, 4L * (size + 2));
+        }
+        bytes.position(used);
+        bytes.put(utf8);
+        used += utf8.length;
+        offsets.putInt(CompactGraph.offset(size + 1, 4), used);
+
+        int number = size++;
+        if (2L * size > table.capacity() / 4) {
+            rehash(table.capacity() / 2); // Twice as many slots.
+        } else if (find(utf8, hash(utf8)) == -1) {
+            insert(table, number, hash(utf8));
+        }
+        return number;
+    }
+
+    public int indexOf(String id) {
+
+        /* The number of id, or -1 when it was never added. */
+
+        byte[] utf8 = id.getBytes(StandardCharsets.UTF_8);
+        return find(utf8, hash(utf8));
+    }
+
+    public String get(int number) {
+        int start = offsets.getInt(CompactGraph.offset(number, 4));
+        byte[] utf8 = new byte[offsets.getInt(CompactGraph.offset(number + 1, 4)) - start];
+        bytes.get(start, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getOffHeapBytes() {
+        return (long) bytes.capacity() + offsets.capacity() + table.capacity();
+    }
+
+    public void trim() {
+
+        /* Releases the slack left by growing once all ids are added. */
+
+        bytes = CompactGraph.copy(bytes, Math.max(1, used));
+        offsets = CompactGraph.copy(offsets, 4L * (size + 1));
+    }
+
+    private int find(byte[] utf8, int hash) {
+        int mask = table.capacity() / 4 - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int entry = table.getInt(CompactGraph.offset(slot, 4));
+            if (entry == 0) {
+                return -1;
+            }
+            if (equals(entry - 1, utf8)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private boolean equals(int number, byte[] utf8) {
+        int start = offsets.getInt(CompactGraph.offset(number, 4));
+        if (offsets.getInt(CompactGraph.offset(number + 1, 4)) - start != utf8.length) {
+            return false;
+        }
+        for (int i = 0; i < utf8.length; i++) {
+            if (bytes.get(start + i) != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int slots) {
+
+        /* Builds a table with the given number of slots from the stored ids, first occurrence first. */
+
+        ByteBuffer bigger = CompactGraph.allocate(4L * slots);
+        table = bigger;
+        for (int number = 0; number < size; number++) {
+            int start = offsets.getInt(CompactGraph.offset(number, 4));
+            byte[] utf8 = new byte[offsets.getInt(CompactGraph.offset(number + 1, 4)) - start];
+            bytes.get(start, utf8);
+            int hash = hash(utf8);
+            if (find(utf8, hash) == -1) {
+                insert(bigger, number, hash);
+            }
+        }
+    }
+
+    private static void insert(ByteBuffer table, int number, int hash) {
+        int mask = table.capacity() / 4 - 1;
+        int slot = hash & mask;
+        while (table.getInt(CompactGraph.offset(slot, 4)) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.putInt(CompactGraph.offset(slot, 4), number + 1);
+    }
+
+    private static int hash(byte[] utf8) {
+
+        /* FNV-1a, with the high bits mixed down since the table only uses the low ones. */
+
+        int hash = 0x811c9dc5;
+        for (byte b : utf8) {
+            hash = (hash ^ (b & 0xff)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,161 @@
+public class IndexedHeap {
+
+    /*
+     * A 4-ary min heap of node indices keyed by doubles, with decrease-key.
+     * Every node is in the heap at most once, so the capacity is the node count
+     * and no stale duplicates are ever polled. Keys are stored next to the heap
+     * slots rather than per node, which keeps sifting cache friendly.
+     *
+     * position[] is never cleared: a node is in the heap only if its recorded
+     * position is inside the heap and the heap slot points back at it. This lets
+     * clear() run in constant time between queries.
+     *
+     * Pushes, decrease-keys, polls and the largest size are counted for
+     * SearchStats until resetCounters().
+     */
+
+    private final int[] heap; // Node index stored in each heap slot.
+    private final double[] keys; // Key of each heap slot.
+    private final int[] position; // Heap slot of each node, only valid while the node is in the heap.
+    private int size;
+    private long pushes;
+    private long decreases;
+    private long polls;
+    private int peakSize;
+
+    public IndexedHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int node) {
+        int slot = position[node];
+        return slot < size && heap[slot] == node;
+    }
+
+    public void resetCounters() {
+
+        /* Called before the engine clears the heap, so the queue of the last query does not count. */
+
+        pushes = 0;
+        decreases = 0;
+        polls = 0;
+        peakSize = 0;
+    }
+
+    public long getPushes() {
+        return pushes;
+    }
+
+    public long getDecreases() {
+        return decreases;
+    }
+
+    public long getPolls() {
+        return polls;
+    }
+
+    public int getPeakSize() {
+        return peakSize;
+    }
+
+    public double peekKey() {
+        return keys[0];
+    }
+
+    public int peek() {
+        return heap[0];
+    }
+
+    public void push(int node, double key) {
+        siftUp(size++, node, key);
+        pushes++;
+        peakSize = Math.max(peakSize, size);
+    }
+
+    public void pushOrDecrease(int node, double key) {
+
+        /*
+         * Inserts the node, or lowers its key if it is already queued. A key that
+         * is not lower than the queued one is ignored.
+         */
+
+        int slot = position[node];
+        if (slot < size && heap[slot] == node) {
+            if (key < keys[slot]) {
+                siftUp(slot, node, key);
+                decreases++;
+            }
+        } else {
+            siftUp(size++, node, key);
+            pushes++;
+            peakSize = Math.max(peakSize, size);
+        }
+    }
+
+    public int poll() {
+        polls++;
+        int min = heap[0];
+        size--;
+        if (size > 0) {
+            siftDown(0, heap[size], keys[size]);
+        }
+        position[min] = Integer.MAX_VALUE; // No longer in the heap, even if the slot gets reused.
+        return min;
+    }
+
+    private void siftUp(int slot, int node, double key) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 2;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(heap[parent], keys[parent], slot);
+            slot = parent;
+        }
+        move(node, key, slot);
+    }
+
+    private void siftDown(int slot, int node, double key) {
+        while (true) {
+            int first = (slot << 2) + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + 4, size);
+            int best = first;
+            double bestKey = keys[first];
+            for (int child = first + 1; child < last; child++) {
+                if (keys[child] < bestKey) {
+                    best = child;
+                    bestKey = keys[child];
+                }
+            }
+            if (key <= bestKey) {
+                break;
+            }
+            move(heap[best], bestKey, slot);
+            slot = best;
+        }
+        move(node, key, slot);
+    }
+
+    private void move(int node, double key, int slot) {
+        heap[slot] = node;
+        keys[slot] = key;
+        position[node] = slot;
+    }
+}
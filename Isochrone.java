@@ -0,0 +1,63 @@
+public class Isochrone {
+
+    /*
+     * Everything reachable within a distance of one or more intersections: a
+     * Dijkstra that starts with all sources at distance 0 and stops as soon as
+     * the closest unsettled node is farther than the limit, so it only explores
+     * the area it returns. With several sources every node gets the distance to
+     * its closest source.
+     *
+     * The search state is sized to the graph once and reused, like in Dijkstra,
+     * so a query allocates nothing but its result. Not thread safe: every thread
+     * that computes isochrones needs its own instance (RoutingServer keeps a pool
+     * of them).
+     */
+
+    private final Graph graph;
+    private final SearchState state;
+    private final IntList settled = new IntList(); // Nodes of the current query in order of distance.
+
+    public Isochrone(Graph graph) {
+        this.graph = graph;
+        this.state = new SearchState(graph.getNodeCount());
+    }
+
+    public IsochroneResult compute(int[] sources, double maxMiles) {
+        Adjacency adjacency = graph.getAdjacency(); // Read once: the version this query sees.
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+        double[] weights = adjacency.getWeights();
+        IndexedHeap heap = state.getHeap();
+
+        state.reset();
+        settled.clear();
+        for (int source : sources) {
+            if (!state.isReached(source)) {
+                state.update(source, 0.0, -1);
+                heap.push(source, 0.0);
+            }
+        }
+
+        while (!heap.isEmpty() && heap.peekKey() <= maxMiles) {
+            int curr = heap.poll();
+            settled.add(curr);
+
+            double currDistance = state.getDistance(curr);
+            for (int slot = offsets[curr]; slot < offsets[curr + 1]; slot++) {
+                int neighbor = targets[slot];
+                double alt = currDistance + weights[slot];
+                if (alt <= maxMiles && alt < state.getDistance(neighbor)) {
+                    state.update(neighbor, alt, curr);
+                    heap.pushOrDecrease(neighbor, alt);
+                }
+            }
+        }
+
+        int[] nodes = settled.toArray();
+        double[] distances = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            distances[i] = state.getDistance(nodes[i]);
+        }
+        return new IsochroneResult(sources.clone(), maxMiles, nodes, distances);
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.BitSet;
+
+public class IsochroneResult {
+
+    /*
+     * Result of an Isochrone query: the nodes within the limit in order of
+     * distance, and their distances in miles to the closest source.
+     */
+
+    private final int[] sources;
+    private final double maxMiles;
+    private final int[] nodes;
+    private final double[] distances;
+
+    public IsochroneResult(int[] sources, double maxMiles, int[] nodes, double[] distances) {
+        this.sources = sources;
+        this.maxMiles = maxMiles;
+        this.nodes = nodes;
+        this.distances = distances;
+    }
+
+    public int[] getSources() {
+        return sources;
+    }
+
+    public double getMaxMiles() {
+        return maxMiles;
+    }
+
+    public int[] getNodes() {
+        return nodes;
+    }
+
+    public double[] getDistances() {
+        return distances;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public BitSet[] getBands(int count) {
+
+        /*
+         * The nodes split into count bands of equal width: band k holds the nodes
+         * from k / count up to (k + 1) / count of the limit, and the last band
+         * also the nodes exactly at the limit.
+         */
+
+        BitSet[] bands = new BitSet[count];
+        for (int k = 0; k < count; k++) {
+            bands[k] = new BitSet();
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            int band = maxMiles > 0 ? (int) (distances[i] / maxMiles * count) : 0;
+            bands[Math.min(band, count - 1)].set(nodes[i]);
+        }
+        return bands;
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+public class Landmarks {
+
+    /*
+     * Landmark distance tables for ALT (A*, landmarks, triangle inequality).
+     * For a landmark L the triangle inequality gives
+     * d(v, t) >= |d(L, t) - d(L, v)|, and the maximum over all landmarks is a lower
+     * bound that follows the real road network, detours around water included.
+     *
+     * Landmarks are spread out by farthest-point selection on the unit sphere
+     * among the nodes connected to the best connected node, so they end up on the
+     * edges of the main part of the map. The one-to-all searches from the
+     * landmarks are independent and run in parallel.
+     *
+     * Distances are stored as floats, node major (the values of one node are next
+     * to each other), rounded down so the bound stays a lower bound.
+     */
+
+    public static final int DEFAULT_COUNT = 16;
+
+    private static final int MAGIC = 0x4c544c41; // "ALTL" in little endian.
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private final int[] landmarks;
+    private final float[] distances; // distances[v * count + i] is the distance from landmark i to v.
+    private final float margin; // Covers float rounding when two distances are subtracted.
+
+    private Landmarks(int[] landmarks, float[] distances) {
+        this.landmarks = landmarks;
+        this.distances = distances;
+
+        float max = 0;
+        for (float d : distances) {
+            if (d != Float.POSITIVE_INFINITY && d > max) {
+                max = d;
+            }
+        }
+        this.margin = 2 * Math.ulp(max);
+    }
+
+    public int getCount() {
+        return landmarks.length;
+    }
+
+    public int[] getLandmarks() {
+        return landmarks;
+    }
+
+    public float[] getDistances() {
+        return distances;
+    }
+
+    public void loadTarget(int target, double[] targetDistances) {
+
+        /* Copies the target's row, so bound() reads one row per call instead of two. */
+
+        int count = landmarks.length;
+        for (int i = 0; i < count; i++) {
+            targetDistances[i] = distances[target * count + i];
+        }
+    }
+
+    public double bound(int node, double[] targetDistances) {
+
+        /*
+         * Lower bound on the distance from node to the target whose row was
+         * loaded into targetDistances. Landmarks that can not reach both nodes are
+         * ignored.
+         */
+
+        int count = landmarks.length;
+        int row = node * count;
+        double best = 0;
+        for (int i = 0; i < count; i++) {
+            double toNode = distances[row + i];
+            double toTarget = targetDistances[i];
+            if (toNode != Double.POSITIVE_INFINITY && toTarget != Double.POSITIVE_INFINITY) {
+                best = Math.max(best, Math.abs(toTarget - toNode));
+            }
+        }
+        return Math.max(0, best - margin);
+    }
+
+    public static Landmarks forGraph(Graph graph) {
+
+        /*
+         * Loads the tables stored next to the map file, or builds and stores them
+         * when there are none or they were built for a different version of the map.
+         */
+
+        Path path = Paths.get(graph.getFileName() + ".alt");
+        long fingerprint = graph.getAdjacency().fingerprint();
+
+        if (Files.exists(path)) {
+            try {
+                Landmarks landmarks = read(path, graph.getNodeCount(), fingerprint);
+                if (landmarks != null) {
+                    return landmarks;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        System.out.println("Computing " + DEFAULT_COUNT + " landmarks for " + graph.getFileName() + "...");
+        long start = System.nanoTime();
+        Landmarks landmarks = build(graph, DEFAULT_COUNT);
+        System.out.printf("Landmarks computed in %.1f s%n", (System.nanoTime() - start) / 1e9);
+
+        if (graph.hasUpdates()) {
+            return landmarks; // Only for the updated roads; the file stays valid for the loaded ones.
+        }
+        try {
+            landmarks.write(path, fingerprint);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return landmarks;
+    }
+
+    public static Landmarks build(Graph graph, int count) {
+        int n = graph.getNodeCount();
+        if (n == 0) {
+            return new Landmarks(new int[0], new float[0]);
+        }
+        int[] landmarks = select(graph, count);
+        int k = landmarks.length;
+        float[] distances = new float[n * k];
+
+        IntStream.range(0, k).parallel().forEach(i -> {
+            SearchState state = new Dijkstra(graph).searchAll(landmarks[i]);
+            for (int v = 0; v < n; v++) {
+                double d = state.getDistance(v);
+                float f = (float) d;
+                if (f > d) {
+                    f = Math.nextDown(f);
+                }
+                distances[v * k + i] = f;
+            }
+        });
+
+        return new Landmarks(landmarks, distances);
+    }
+
+    private static int[] select(Graph graph, int count) {
+
+        /*
+         * Farthest-point selection by straight-line distance. Candidates are the
+         * nodes reachable from the node with the most roads, which keeps landmarks
+         * out of small disconnected fragments.
+         */
+
+        Adjacency adjacency = graph.getAdjacency();
+        int n = graph.getNodeCount();
+        int seed = 0;
+        for (int v = 1; v < n; v++) {
+            if (adjacency.degree(v) > adjacency.degree(seed)) {
+                seed = v;
+            }
+        }
+
+        SearchState reached = new Dijkstra(graph).searchAll(seed);
+        int[] candidates = IntStream.range(0, n).filter(reached::isReached).toArray();
+        count = Math.min(count, candidates.length);
+
+        double[] vectors = graph.getUnitVectors();
+        double[] nearest = new double[candidates.length]; // Squared chord to the closest landmark so far.
+
+        int[] landmarks = new int[count];
+        int from = seed; // The first landmark is the node farthest from the seed, which is not a landmark itself.
+        for (int i = 0; i < count; i++) {
+            int best = -1;
+            for (int c = 0; c < candidates.length; c++) {
+                int v = candidates[c];
+                double dx = vectors[3 * v] - vectors[3 * from];
+                double dy = vectors[3 * v + 1] - vectors[3 * from + 1];
+                double dz = vectors[3 * v + 2] - vectors[3 * from + 2];
+                double squared = dx * dx + dy * dy + dz * dz;
+                nearest[c] = i <= 1 ? squared : Math.min(nearest[c], squared);
+                if (best == -1 || nearest[c] > nearest[best]) {
+                    best = c;
+                }
+            }
+            landmarks[i] = candidates[best];
+            from = landmarks[i];
+        }
+        return landmarks;
+    }
+
+    public void write(Path path, long fingerprint) throws IOException {
+
+        /* Same layout idea as ContractionHierarchy: a small header and little endian arrays. */
+
+        int k = landmarks.length;
+        long size = HEADER_SIZE + 4L * k + 4L * distances.length;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Landmark tables are too large to store: " + size + " bytes");
+        }
+
+        Files.deleteIfExists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(distances.length / Math.max(1, k)).putInt(k)
+                    .putLong(fingerprint);
+            buffer.asIntBuffer().put(landmarks);
+            buffer.position(buffer.position() + 4 * k);
+            buffer.asFloatBuffer().put(distances);
+            buffer.force();
+        }
+    }
+
+    public static Landmarks read(Path path, int nodeCount, long fingerprint) throws IOException {
+
+        /* Returns null when the file belongs to another map or another version. */
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != nodeCount) {
+                return null;
+            }
+            int k = buffer.getInt();
+            if (buffer.getLong() != fingerprint || channel.size() != HEADER_SIZE + 4L * k + 4L * k * nodeCount) {
+                return null;
+            }
+
+            int[] landmarks = new int[k];
+            float[] distances = new float[k * nodeCount];
+            buffer.asIntBuffer().get(landmarks);
+            buffer.position(buffer.position() + 4 * k);
+            buffer.asFloatBuffer().get(distances);
+            return new Landmarks(landmarks, distances);
+        }
+    }
+}
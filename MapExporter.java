@@ -0,0 +1,161 @@
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+public class MapExporter {
+
+    /*
+     * Renders the map to an image without a window (--render), for batch jobs on
+     * machines without a display. The projection is the one DrawingPanel uses:
+     * map coordinates from MapRenderer, turned so north is up. The bounding box is
+     * fitted into the image without stretching and centred.
+     *
+     * The image is cut into horizontal bands that are drawn in parallel, each
+     * into its own view of the same image (getSubimage shares the pixels), so
+     * there is nothing to copy together afterwards. Each band is drawn with the
+     * same transform moved by a whole number of rows, so roads crossing from
+     * one band into the next line up exactly.
+     */
+
+    private static final int BANDS_PER_THREAD = 4;
+    public static final long MAX_PIXELS = Integer.MAX_VALUE / 4; // 4 bytes each, so the image stays below 2 GB.
+
+    private final Graph graph;
+    private final MapRenderer renderer;
+
+    public MapExporter(Graph graph) {
+        this.graph = graph;
+        this.renderer = new MapRenderer(graph);
+    }
+
+    public BufferedImage render(int width, int height, double[] bbox, List<Node> path, int threads)
+            throws IOException {
+
+        /*
+         * Draws the map inside bbox (smallest latitude, smallest longitude, largest
+         * latitude, largest longitude; the whole map when null) and the path, if any.
+         * An image of more than MAX_PIXELS pixels is refused.
+         */
+
+        if ((long) width * height > MAX_PIXELS) {
+            throw new IllegalArgumentException("An image of " + width + "x" + height + " pixels is larger than the "
+                    + MAX_PIXELS + " pixels allowed");
+        }
+        if (bbox == null) {
+            bbox = bounds(graph);
+        }
+        double minX = renderer.toMapX(bbox[0]);
+        double minY = renderer.toMapY(bbox[1]);
+        double maxX = renderer.toMapX(bbox[2]);
+        double maxY = renderer.toMapY(bbox[3]);
+
+        // Map y runs left to right on the image and map x bottom to top.
+        double scale = Math.min(width / Math.max(maxY - minY, 1e-9), height / Math.max(maxX - minX, 1e-9));
+        AffineTransform mapToImage = new AffineTransform();
+        mapToImage.translate(width / 2.0, height / 2.0);
+        mapToImage.rotate(3 * Math.PI / 2);
+        mapToImage.scale(scale, scale);
+        mapToImage.translate(-(minX + maxX) / 2, -(minY + maxY) / 2);
+
+        BitSet route = null;
+        if (path != null) {
+            route = new BitSet(graph.getNodeCount());
+            for (Node node : path) {
+                route.set(node.getIndex());
+            }
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int bands = Math.max(1, Math.min(height, threads * BANDS_PER_THREAD));
+        int rowsPerBand = (height + bands - 1) / bands;
+        ThreadLocal<MapRenderer> renderers = ThreadLocal.withInitial(renderer::copy);
+        BitSet overlay = route;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int top = 0; top < height; top += rowsPerBand) {
+                int bandTop = top;
+                int rows = Math.min(rowsPerBand, height - top);
+                futures.add(pool.submit(() -> {
+                    drawBand(image, renderers.get(), mapToImage, scale, bandTop, rows, overlay);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new IOException("Rendering failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        return image;
+    }
+
+    public static void write(BufferedImage image, Path file) throws IOException {
+
+        /* The format follows the file extension, png when there is none. */
+
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String format = dot < 0 ? "png" : name.substring(dot + 1).toLowerCase();
+        if (!ImageIO.write(image, format, file.toFile())) {
+            throw new IOException("No image writer for " + format);
+        }
+    }
+
+    private static void drawBand(BufferedImage image, MapRenderer renderer, AffineTransform mapToImage,
+            double scale, int top, int rows, BitSet route) throws NoninvertibleTransformException {
+        BufferedImage band = image.getSubimage(0, top, image.getWidth(), rows);
+        Graphics2D g2d = band.createGraphics();
+        try {
+            g2d.setColor(MapRenderer.BACKGROUND_COLOR);
+            g2d.fillRect(0, 0, band.getWidth(), rows);
+            g2d.translate(0, -top);
+            g2d.transform(mapToImage);
+
+            Rectangle2D view = mapToImage.createInverse()
+                    .createTransformedShape(new Rectangle2D.Double(0, top, image.getWidth(), rows)).getBounds2D();
+            renderer.drawMap(g2d, view, scale);
+            if (route != null) {
+                renderer.drawRoute(g2d, view, route);
+            }
+        } finally {
+            g2d.dispose();
+        }
+    }
+
+    private static double[] bounds(Graph graph) {
+
+        /* Smallest and largest latitude and longitude of the map, with a small margin. */
+
+        double[] bbox = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.NEGATIVE_INFINITY };
+        for (int i = 0; i < graph.getNodeCount(); i++) {
+            Node node = graph.getNode(i);
+            bbox[0] = Math.min(bbox[0], node.getLatitude());
+            bbox[1] = Math.min(bbox[1], node.getLongitude());
+            bbox[2] = Math.max(bbox[2], node.getLatitude());
+            bbox[3] = Math.max(bbox[3], node.getLongitude());
+        }
+        double margin = 0.01 * Math.max(bbox[2] - bbox[0], bbox[3] - bbox[1]);
+        bbox[0] -= margin;
+        bbox[1] -= margin;
+        bbox[2] += margin;
+        bbox[3] += margin;
+        return bbox;
+    }
+}
@@ -0,0 +1,294 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.BitSet;
+
+public class MapRenderer {
+
+    /*
+     * Draws the roads and intersections of a graph in map coordinates:
+     * x = (latitude - smallest latitude) * COORDINATE_MULTIPLIER and
+     * y = (longitude - smallest longitude) * COORDINATE_MULTIPLIER, which is what
+     * DrawingPanel has always used before its own rotation and zoom.
+     *
+     * Only the part of the map inside the given view rectangle is drawn. The
+     * nodes are found with the spatial index, the box being widened by the
+     * longest road so roads that cross the view with both ends outside of it
+     * still show. Everything of one style goes into one Path2D and is drawn with
+     * a single call, intersections as zero-length segments with round caps.
+     * The paths and the node list are reused between frames, so a renderer
+     * belongs to one thread.
+     *
+     * Zoomed out far enough that half a pixel is at least two map units, the
+     * roads come from the matching level of a GeometryPyramid instead, and
+     * intersections smaller than a pixel on screen are left out.
+     *
+     * The map is always the roads as loaded (Graph.getBaseAdjacency()), so road
+     * updates never leave tiles and pyramid levels of different versions side by
+     * side. Routes and isochrones are drawn along the current roads, which they
+     * were computed on, so a temporary road a route takes still shows.
+     */
+
+    public static final double COORDINATE_MULTIPLIER = 100000;
+
+    public static final Color BACKGROUND_COLOR = new Color(102, 204, 102);
+    public static final Color ROAD_COLOR = new Color(245, 245, 245);
+    public static final Color ROUTE_COLOR = new Color(0, 0, 0);
+    public static final Color ISOCHRONE_NEAR_COLOR = new Color(140, 0, 60); // Isochrone bands fade from this
+    public static final Color ISOCHRONE_FAR_COLOR = new Color(255, 210, 60); // to this one.
+    private static final int NODE_RADIUS = 5;
+    private static final double PIXEL_TOLERANCE = 0.5; // Simplification allowed on screen, in pixels.
+    private static final double MIN_DOT_PIXELS = 1; // Smallest intersection drawn, diameter in pixels.
+    private static final BasicStroke ROAD_STROKE = new BasicStroke(2);
+    private static final BasicStroke ROUTE_STROKE = new BasicStroke(5);
+    private static final BasicStroke NODE_STROKE = new BasicStroke(2 * NODE_RADIUS, BasicStroke.CAP_ROUND,
+            BasicStroke.JOIN_ROUND);
+
+    private final Graph graph;
+    private final double offsetX; // Smallest latitude, the origin of the map coordinates.
+    private final double offsetY; // Smallest longitude.
+    private final float[] xs; // Map coordinates by node index.
+    private final float[] ys;
+    private final double maxEdgeLatitude; // Largest latitude difference between the ends of a road.
+    private final double maxEdgeLongitude;
+    private final GeometryPyramid pyramid;
+
+    private final IntList visible = new IntList(1024);
+    private final Path2D.Float roads = new Path2D.Float(Path2D.WIND_NON_ZERO, 4096);
+    private final Path2D.Float dots = new Path2D.Float(Path2D.WIND_NON_ZERO, 4096);
+
+    public MapRenderer(Graph graph) {
+        this.graph = graph;
+        this.offsetX = graph.getSmallestX();
+        this.offsetY = graph.getSmallestY();
+
+        int n = graph.getNodeCount();
+        xs = new float[n];
+        ys = new float[n];
+        for (int i = 0; i < n; i++) {
+            Node node = graph.getNode(i);
+            xs[i] = (float) toMapX(node.getLatitude());
+            ys[i] = (float) toMapY(node.getLongitude());
+        }
+
+        Adjacency adjacency = graph.getBaseAdjacency();
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+        double latitude = 0;
+        double longitude = 0;
+        for (int u = 0; u < n; u++) {
+            for (int slot = offsets[u]; slot < offsets[u + 1]; slot++) {
+                int v = targets[slot];
+                latitude = Math.max(latitude, Math.abs(xs[u] - xs[v]));
+                longitude = Math.max(longitude, Math.abs(ys[u] - ys[v]));
+            }
+        }
+        maxEdgeLatitude = latitude / COORDINATE_MULTIPLIER;
+        maxEdgeLongitude = longitude / COORDINATE_MULTIPLIER;
+        pyramid = new GeometryPyramid(graph, xs, ys);
+    }
+
+    private MapRenderer(MapRenderer other) {
+        this.graph = other.graph;
+        this.offsetX = other.offsetX;
+        this.offsetY = other.offsetY;
+        this.xs = other.xs;
+        this.ys = other.ys;
+        this.maxEdgeLatitude = other.maxEdgeLatitude;
+        this.maxEdgeLongitude = other.maxEdgeLongitude;
+        this.pyramid = other.pyramid;
+    }
+
+    public MapRenderer copy() {
+
+        /* A renderer for another thread: the coordinates are shared, the buffers are its own. */
+
+        return new MapRenderer(this);
+    }
+
+    public double toMapX(double latitude) {
+        return (latitude - offsetX) * COORDINATE_MULTIPLIER;
+    }
+
+    public double toMapY(double longitude) {
+        return (longitude - offsetY) * COORDINATE_MULTIPLIER;
+    }
+
+    public double toLatitude(double mapX) {
+        return mapX / COORDINATE_MULTIPLIER + offsetX;
+    }
+
+    public double toLongitude(double mapY) {
+        return mapY / COORDINATE_MULTIPLIER + offsetY;
+    }
+
+    public float getX(int node) {
+        return xs[node];
+    }
+
+    public float getY(int node) {
+        return ys[node];
+    }
+
+    public void drawMap(Graphics2D g2d, Rectangle2D view, double scale) {
+
+        /*
+         * All intersections and roads that can be seen in view, in the road style.
+         * Scale is the size of one map unit on screen, in pixels.
+         */
+
+        double pad = NODE_RADIUS + ROUTE_STROKE.getLineWidth();
+        double minX = view.getMinX() - pad;
+        double minY = view.getMinY() - pad;
+        double maxX = view.getMaxX() + pad;
+        double maxY = view.getMaxY() + pad;
+        boolean drawDots = 2 * NODE_RADIUS * scale >= MIN_DOT_PIXELS;
+
+        dots.reset();
+        roads.reset();
+        int level = pyramid.levelFor(PIXEL_TOLERANCE / scale);
+        if (level > 0) {
+            pyramid.append(level, minX, minY, maxX, maxY, roads, drawDots ? dots : null);
+            draw(g2d, ROAD_COLOR, ROAD_STROKE);
+            return;
+        }
+
+        visible.clear();
+        graph.getSpatialIndex().within(toLatitude(minX) - maxEdgeLatitude, toLongitude(minY) - maxEdgeLongitude,
+                toLatitude(maxX) + maxEdgeLatitude, toLongitude(maxY) + maxEdgeLongitude, visible);
+
+        Adjacency adjacency = graph.getBaseAdjacency();
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+
+        for (int i = 0; i < visible.size(); i++) {
+            int u = visible.get(i);
+            float x = xs[u];
+            float y = ys[u];
+            if (drawDots && x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                dots.moveTo(x, y);
+                dots.lineTo(x, y);
+            }
+            for (int slot = offsets[u]; slot < offsets[u + 1]; slot++) {
+                // Every road is stored from both ends; draw it from the lower index only.
+                int v = targets[slot];
+                if (u < v && crosses(x, y, xs[v], ys[v], minX, minY, maxX, maxY)) {
+                    roads.moveTo(x, y);
+                    roads.lineTo(xs[v], ys[v]);
+                }
+            }
+        }
+
+        draw(g2d, ROAD_COLOR, ROAD_STROKE);
+    }
+
+    public void drawRoute(Graphics2D g2d, Rectangle2D view, BitSet route) {
+
+        /*
+         * The nodes in route and the roads with both ends in route, in the route
+         * style. Routes are short next to the map, so they are culled one by one.
+         */
+
+        double pad = NODE_RADIUS + ROUTE_STROKE.getLineWidth();
+        double minX = view.getMinX() - pad;
+        double minY = view.getMinY() - pad;
+        double maxX = view.getMaxX() + pad;
+        double maxY = view.getMaxY() + pad;
+
+        Adjacency adjacency = graph.getAdjacency();
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+
+        dots.reset();
+        roads.reset();
+        for (int u = route.nextSetBit(0); u >= 0; u = route.nextSetBit(u + 1)) {
+            float x = xs[u];
+            float y = ys[u];
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                dots.moveTo(x, y);
+                dots.lineTo(x, y);
+            }
+            for (int slot = offsets[u]; slot < offsets[u + 1]; slot++) {
+                int v = targets[slot];
+                if (u < v && route.get(v) && crosses(x, y, xs[v], ys[v], minX, minY, maxX, maxY)) {
+                    roads.moveTo(x, y);
+                    roads.lineTo(xs[v], ys[v]);
+                }
+            }
+        }
+
+        draw(g2d, ROUTE_COLOR, ROUTE_STROKE);
+    }
+
+    public void drawIsochrone(Graphics2D g2d, Rectangle2D view, BitSet[] bands) {
+
+        /*
+         * The bands of an isochrone (IsochroneResult.getBands()), nearest first,
+         * each in its own colour between ISOCHRONE_NEAR_COLOR and
+         * ISOCHRONE_FAR_COLOR. A road is drawn in the band of its farther end once
+         * both ends are reached.
+         */
+
+        double pad = ROUTE_STROKE.getLineWidth();
+        double minX = view.getMinX() - pad;
+        double minY = view.getMinY() - pad;
+        double maxX = view.getMaxX() + pad;
+        double maxY = view.getMaxY() + pad;
+
+        Adjacency adjacency = graph.getAdjacency();
+        int[] offsets = adjacency.getOffsets();
+        int[] targets = adjacency.getTargets();
+
+        for (int b = 0; b < bands.length; b++) {
+            roads.reset();
+            for (int u = bands[b].nextSetBit(0); u >= 0; u = bands[b].nextSetBit(u + 1)) {
+                float x = xs[u];
+                float y = ys[u];
+                for (int slot = offsets[u]; slot < offsets[u + 1]; slot++) {
+                    int v = targets[slot];
+                    if (!crosses(x, y, xs[v], ys[v], minX, minY, maxX, maxY)) {
+                        continue;
+                    }
+                    // From u when v is in an earlier band, and from the lower index within the band.
+                    boolean draw = bands[b].get(v) && u < v;
+                    for (int earlier = 0; earlier < b && !draw; earlier++) {
+                        draw = bands[earlier].get(v);
+                    }
+                    if (draw) {
+                        roads.moveTo(x, y);
+                        roads.lineTo(xs[v], ys[v]);
+                    }
+                }
+            }
+            double t = bands.length == 1 ? 0 : (double) b / (bands.length - 1);
+            g2d.setColor(blend(ISOCHRONE_NEAR_COLOR, ISOCHRONE_FAR_COLOR, t));
+            g2d.setStroke(ROUTE_STROKE);
+            g2d.draw(roads);
+        }
+    }
+
+    private static Color blend(Color from, Color to, double t) {
+        return new Color((int) Math.round(from.getRed() + t * (to.getRed() - from.getRed())),
+                (int) Math.round(from.getGreen() + t * (to.getGreen() - from.getGreen())),
+                (int) Math.round(from.getBlue() + t * (to.getBlue() - from.getBlue())));
+    }
+
+    private void draw(Graphics2D g2d, Color color, BasicStroke roadStroke) {
+        g2d.setColor(color);
+        g2d.setStroke(NODE_STROKE);
+        g2d.draw(dots);
+        g2d.setStroke(roadStroke);
+        g2d.draw(roads);
+    }
+
+    private static boolean crosses(float x1, float y1, float x2, float y2, double minX, double minY, double maxX,
+            double maxY) {
+
+        /* Whether the bounding box of the segment overlaps the view. */
+
+        return Math.max(x1, x2) >= minX && Math.min(x1, x2) <= maxX && Math.max(y1, y2) >= minY
+                && Math.min(y1, y2) <= maxY;
+    }
+}
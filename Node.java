@@ -2,6 +2,7 @@ public class Node {
     private String id;
     private double latitude;
     private double longitude;
+    private int index = -1; // Position of the node in the graph's adjacency arrays. Set by Graph.
 
     public Node(String id, double latitude, double longitude) {
 
@@ -38,4 +39,12 @@ public class Node {
     public void setLongitude(double longitude) {
         this.longitude = longitude;
     }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
 }
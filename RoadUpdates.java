@@ -0,0 +1,163 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class RoadUpdates {
+
+    /*
+     * A batch of changes to the roads of a loaded graph, applied at once with
+     * Graph.update(). Roads are named by their id from the textfile:
+     * disable <road>                       closes the road,
+     * enable <road>                        opens it again,
+     * weight <road> <miles>                overrides its length, e.g. for a slow stretch,
+     * add <road> <start> <end> [miles]     adds a temporary road between two intersections,
+     * reset                                drops every earlier change, back to the textfile.
+     * A weight can not be less than the straight-line distance between the ends
+     * of the road, which keeps the A* bound admissible; a temporary road without a
+     * weight gets that distance. read() takes the same lines from a file, one
+     * change per line, with # starting a comment.
+     */
+
+    private final List<Update> updates = new ArrayList<>();
+
+    public RoadUpdates disable(String road) {
+        updates.add(new Update("disable", road, null, null, Double.NaN));
+        return this;
+    }
+
+    public RoadUpdates enable(String road) {
+        updates.add(new Update("enable", road, null, null, Double.NaN));
+        return this;
+    }
+
+    public RoadUpdates setWeight(String road, double miles) {
+        updates.add(new Update("weight", road, null, null, miles));
+        return this;
+    }
+
+    public RoadUpdates add(String road, String start, String end, double miles) {
+
+        /* miles is NaN for the straight-line distance. */
+
+        updates.add(new Update("add", road, start, end, miles));
+        return this;
+    }
+
+    public RoadUpdates reset() {
+        updates.add(new Update("reset", null, null, null, Double.NaN));
+        return this;
+    }
+
+    public List<Update> getUpdates() {
+        return Collections.unmodifiableList(updates);
+    }
+
+    public int size() {
+        return updates.size();
+    }
+
+    public static RoadUpdates read(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            return read(reader, path.toString());
+        }
+    }
+
+    public static RoadUpdates read(BufferedReader reader, String name) throws IOException {
+
+        /* Reads update lines until the end of reader; name is used in error messages. */
+
+        RoadUpdates batch = new RoadUpdates();
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            int comment = line.indexOf('#');
+            String[] fields = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+            if (fields[0].isEmpty()) {
+                continue;
+            }
+            try {
+                batch.parse(fields);
+            } catch (RuntimeException e) {
+                throw new IOException(name + ":" + number + ": not an update: " + line.trim());
+            }
+        }
+        return batch;
+    }
+
+    private void parse(String[] fields) {
+        switch (fields[0]) {
+            case "disable":
+                check(fields, 2, 2);
+                disable(fields[1]);
+                break;
+            case "enable":
+                check(fields, 2, 2);
+                enable(fields[1]);
+                break;
+            case "weight":
+                check(fields, 3, 3);
+                setWeight(fields[1], Double.parseDouble(fields[2]));
+                break;
+            case "add":
+                check(fields, 4, 5);
+                add(fields[1], fields[2], fields[3], fields.length == 5 ? Double.parseDouble(fields[4]) : Double.NaN);
+                break;
+            case "reset":
+                check(fields, 1, 1);
+                reset();
+                break;
+            default:
+                throw new IllegalArgumentException(fields[0]);
+        }
+    }
+
+    private static void check(String[] fields, int min, int max) {
+        if (fields.length < min || fields.length > max) {
+            throw new IllegalArgumentException(fields[0]);
+        }
+    }
+
+    public static class Update {
+
+        /* One change; the fields a kind does not use are null or NaN. */
+
+        private final String kind; // disable, enable, weight, add or reset.
+        private final String road;
+        private final String start;
+        private final String end;
+        private final double miles;
+
+        Update(String kind, String road, String start, String end, double miles) {
+            this.kind = kind;
+            this.road = road;
+            this.start = start;
+            this.end = end;
+            this.miles = miles;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getRoad() {
+            return road;
+        }
+
+        public String getStart() {
+            return start;
+        }
+
+        public String getEnd() {
+            return end;
+        }
+
+        public double getMiles() {
+            return miles;
+        }
+    }
+}
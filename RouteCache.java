@@ -0,0 +1,195 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class RouteCache {
+
+    /*
+     * Remembers recent routes so popular origin/destination pairs are not
+     * searched again. Roads work both ways, so a route from a to b is also the
+     * route from b to a read backwards: entries are keyed by
+     * (smaller index, larger index, algorithm) and reversed on the way out when
+     * the query was the other way round. Pairs with no route are remembered too.
+     *
+     * The cache is split into segments by key hash, each an LRU map with its own
+     * lock, so threads looking up different pairs rarely wait on each other. The
+     * size is bounded by the number of path entries held (plus a fixed amount
+     * per route), not by the number of routes, since routes differ a lot in
+     * length. invalidate() empties it when the graph changes; a route that was
+     * being computed while that happened is not stored.
+     */
+
+    public static final int DEFAULT_CAPACITY = 1 << 22; // Path entries, about 16 MB of ints.
+    private static final int SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD = 16; // Counted per route on top of its path length.
+    private static final RouteResult NO_ROUTE = new RouteResult(Double.POSITIVE_INFINITY, new int[0]);
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile long generation; // Bumped by invalidate().
+
+    public RouteCache(long capacity) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+        }
+    }
+
+    public RouteResult route(Router router, String algorithm, int source, int target) {
+
+        /*
+         * The cached route from source to target, or the route found by router,
+         * which is then cached. Null when target can not be reached.
+         */
+
+        Key key = new Key(Math.min(source, target), Math.max(source, target), algorithm);
+        Segment segment = segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+
+        RouteResult cached;
+        synchronized (segment) {
+            cached = segment.get(key);
+        }
+        if (cached != null) {
+            hits.increment();
+            return orient(cached, source > target);
+        }
+
+        misses.increment();
+        long before = generation;
+        RouteResult result = router.route(key.from, key.to);
+        RouteResult stored = result == null ? NO_ROUTE : result;
+        synchronized (segment) {
+            if (generation == before) {
+                segment.add(key, stored);
+            }
+        }
+        return orient(stored, source > target);
+    }
+
+    public void invalidate() {
+        generation++;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        long h = getHits();
+        long m = getMisses();
+        return String.format("routes %d, hits %d, misses %d, evictions %d, hit rate %.1f%%", size(), h, m,
+                getEvictions(), h + m == 0 ? 0.0 : 100.0 * h / (h + m));
+    }
+
+    private static RouteResult orient(RouteResult result, boolean reverse) {
+        if (result == NO_ROUTE) {
+            return null;
+        }
+        if (!reverse) {
+            return result;
+        }
+        int[] path = result.getPath();
+        int[] reversed = new int[path.length];
+        for (int i = 0; i < path.length; i++) {
+            reversed[i] = path[path.length - 1 - i];
+        }
+        return new RouteResult(result.getDistance(), reversed);
+    }
+
+    private static final class Key {
+        private final int from; // The smaller node index.
+        private final int to;
+        private final String algorithm;
+
+        Key(int from, int to, String algorithm) {
+            this.from = from;
+            this.to = to;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return from == other.from && to == other.to && algorithm.equals(other.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * from + to) * 31 + algorithm.hashCode();
+        }
+    }
+
+    private final class Segment {
+
+        /* An access ordered map, so iteration starts at the least recently used route. Guarded by itself. */
+
+        private final Map<Key, RouteResult> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private final long capacity;
+        private long weight; // Path entries held, plus the per route overhead.
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        RouteResult get(Key key) {
+            return entries.get(key);
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        void add(Key key, RouteResult result) {
+            RouteResult old = entries.put(key, result);
+            if (old != null) {
+                weight -= weight(old);
+            }
+            weight += weight(result);
+
+            Iterator<Map.Entry<Key, RouteResult>> eldest = entries.entrySet().iterator();
+            while (weight > capacity && eldest.hasNext()) {
+                weight -= weight(eldest.next().getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        void clear() {
+            entries.clear();
+            weight = 0;
+        }
+
+        private long weight(RouteResult result) {
+            return result.getPath().length + ENTRY_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class RouteResult {
+
+    /*
+     * Result of a point-to-point query: the route length in miles and the route
+     * as node indices, source first.
+     */
+
+    private final double distance;
+    private final int[] path;
+
+    public RouteResult(double distance, int[] path) {
+        this.distance = distance;
+        this.path = path;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public int[] getPath() {
+        return path;
+    }
+
+    public List<Node> getNodes(Graph graph) {
+        List<Node> nodes = new ArrayList<>(path.length);
+        for (int index : path) {
+            nodes.add(graph.getNode(index));
+        }
+        return nodes;
+    }
+}
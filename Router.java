@@ -0,0 +1,52 @@
+import java.util.concurrent.CancellationException;
+
+public interface Router {
+
+    /*
+     * A point-to-point routing engine over the graph's node indices. A router
+     * keeps reusable search state, so it is not thread safe: every routing thread
+     * needs its own instance from create().
+     *
+     * Searches can be cancelled cooperatively: every CANCEL_CHECK_INTERVAL
+     * settled nodes an engine calls checkCancelled(), which throws a
+     * CancellationException when the routing thread has been interrupted, for
+     * example by Future.cancel(true).
+     */
+
+    int CANCEL_CHECK_INTERVAL = 4096; // Settled nodes between two checks, a power of two.
+
+    RouteResult route(int source, int target); // null when target can not be reached.
+
+    default SearchStats getStats() {
+
+        /* Counters of the last route() call, or null for routers that do not search themselves. */
+
+        return null;
+    }
+
+    static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search cancelled");
+        }
+    }
+
+    static Router create(Graph graph, String algorithm) {
+
+        /* Used by the --algo option. */
+
+        switch (algorithm) {
+            case "dijkstra":
+                return new Dijkstra(graph);
+            case "astar":
+                return new AStar(graph);
+            case "bidirectional":
+                return new BidirectionalDijkstra(graph);
+            case "alt":
+                return new AStar(graph, true);
+            case "ch":
+                return new ContractionHierarchyRouter(graph);
+            default:
+                throw new IllegalArgumentException("Unknown routing algorithm: " + algorithm);
+        }
+    }
+}
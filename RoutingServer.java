@@ -0,0 +1,338 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class RoutingServer {
+
+    /*
+     * Serves routing for one loaded graph over local HTTP (--serve), so a query
+     * does not have to start a JVM and load the map. Endpoints, all answering
+     * JSON:
+     * /route?from=<id>&to=<id> the route with the server's algorithm,
+     * /nearest?lat=<latitude>&lon=<longitude> the closest intersection,
+     * /health node and edge counts and the number of requests served,
+     * /isochrone?from=<id>[,<id>...]&miles=<limit>[&nodes=<n>] the number of
+     * intersections within miles of the closest of the given ones, and the n
+     * nearest of them with their distance (default 1000, at most 100000),
+     * /update a POST whose body is a batch of road updates (see RoadUpdates).
+     *
+     * Every request gets its own virtual thread when the JDK has them (21 and
+     * later), otherwise a thread from a fixed pool. The graph is only read, and
+     * its lazily built parts are synchronized. Routers are not thread safe, so
+     * they come from a fixed pool created before the server starts: a request
+     * waits for a free router, which also caps the number of searches running
+     * at once at the number of routers. Isochrones get their own pool of
+     * Isochrone instances, so their search buffers are reused too. Routes go
+     * through the graph's route cache first, so popular pairs do not need a
+     * router at all. Road updates switch the graph to a new version of the
+     * roads; searches that are running finish on the version they started with.
+     */
+
+    private static final int ISOCHRONE_NODES = 1000; // Intersections listed by /isochrone by default.
+    private static final int MAX_ISOCHRONE_NODES = 100000; // Keeps a large limit from building a huge response.
+
+    private final Graph graph;
+    private final String algorithm;
+    private final BlockingQueue<Router> routers;
+    private final BlockingQueue<Isochrone> isochrones;
+    private final LongAdder requests = new LongAdder();
+    private HttpServer server;
+
+    public RoutingServer(Graph graph, String algorithm, int threads) {
+        this.graph = graph;
+        this.algorithm = algorithm;
+        this.routers = new ArrayBlockingQueue<>(threads);
+        this.isochrones = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) {
+            // Creating the routers triggers any preprocessing (hierarchy, landmarks) before serving.
+            routers.add(Router.create(graph, algorithm));
+            isochrones.add(new Isochrone(graph));
+        }
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.createContext("/route", exchange -> handle(exchange, this::route));
+        server.createContext("/nearest", exchange -> handle(exchange, this::nearest));
+        server.createContext("/health", exchange -> handle(exchange, this::health));
+        server.createContext("/isochrone", exchange -> handle(exchange, this::isochrone));
+        server.createContext("/update", exchange -> handle(exchange, (query, json) -> update(exchange, json)));
+        server.setExecutor(requestExecutor(routers.size()));
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static ExecutorService requestExecutor(int threads) {
+
+        /*
+         * Executors.newVirtualThreadPerTaskExecutor() is looked up by reflection so
+         * the code still compiles and runs on JDK 17.
+         */
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(2 * threads);
+        }
+    }
+
+    private interface Handler {
+        int answer(Map<String, String> query, StringBuilder json) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        requests.increment();
+        StringBuilder json = new StringBuilder(256);
+        int status;
+        try {
+            status = handler.answer(parseQuery(exchange.getRequestURI().getRawQuery()), json);
+        } catch (IllegalArgumentException e) {
+            json.setLength(0);
+            json.append("{\"error\":");
+            string(json, e.getMessage());
+            json.append('}');
+            status = 400;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            json.setLength(0);
+            json.append("{\"error\":\"internal error\"}");
+            status = 500;
+        }
+
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private int route(Map<String, String> query, StringBuilder json) {
+        Node from = node(query, "from");
+        Node to = node(query, "to");
+
+        long start = System.nanoTime();
+        RouteResult result = graph.getRouteCache().route(this::pooledRoute, algorithm, from.getIndex(),
+                to.getIndex());
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        json.append("{\"from\":");
+        string(json, from.getID());
+        json.append(",\"to\":");
+        string(json, to.getID());
+        json.append(",\"algorithm\":");
+        string(json, algorithm);
+        json.append(",\"reachable\":").append(result != null);
+        json.append(",\"distance\":").append(result != null ? Double.toString(result.getDistance()) : "null");
+        json.append(",\"nodes\":[");
+        if (result != null) {
+            for (int i = 0; i < result.getPath().length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                string(json, graph.getNode(result.getPath()[i]).getID());
+            }
+        }
+        json.append("],\"ms\":").append(millis).append('}');
+        return 200;
+    }
+
+    private RouteResult pooledRoute(int source, int target) {
+
+        /* Runs the search on a router from the pool, only called on a cache miss. */
+
+        Router router;
+        try {
+            router = routers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a router", e);
+        }
+        try {
+            return router.route(source, target);
+        } finally {
+            routers.add(router);
+        }
+    }
+
+    private int isochrone(Map<String, String> query, StringBuilder json) {
+        String from = query.get("from");
+        if (from == null) {
+            throw new IllegalArgumentException("missing parameter from");
+        }
+        String[] ids = from.split(",");
+        int[] sources = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            Node node = graph.getNodeById(ids[i]);
+            if (node == null) {
+                throw new IllegalArgumentException("unknown intersection " + ids[i]);
+            }
+            sources[i] = node.getIndex();
+        }
+        double miles = number(query, "miles");
+        double listed = query.containsKey("nodes") ? number(query, "nodes") : ISOCHRONE_NODES;
+        if (!(listed >= 0 && listed <= MAX_ISOCHRONE_NODES)) {
+            throw new IllegalArgumentException("nodes must be between 0 and " + MAX_ISOCHRONE_NODES);
+        }
+
+        long start = System.nanoTime();
+        Isochrone isochrone;
+        try {
+            isochrone = isochrones.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an isochrone engine", e);
+        }
+        IsochroneResult result;
+        try {
+            result = isochrone.compute(sources, miles);
+        } finally {
+            isochrones.add(isochrone);
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        json.append("{\"miles\":").append(miles);
+        // The nodes are in order of distance, so the listed ones are the nearest.
+        int count = (int) Math.min(listed, result.size());
+        json.append(",\"reached\":").append(result.size());
+        json.append(",\"truncated\":").append(count < result.size());
+        json.append(",\"nodes\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":");
+            string(json, graph.getNode(result.getNodes()[i]).getID());
+            json.append(",\"miles\":").append(result.getDistances()[i]).append('}');
+        }
+        json.append("],\"ms\":").append(millis).append('}');
+        return 200;
+    }
+
+    private int update(HttpExchange exchange, StringBuilder json) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            throw new IllegalArgumentException("updates must be sent with POST");
+        }
+        RoadUpdates batch;
+        try (BufferedReader body = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            batch = RoadUpdates.read(body, "request");
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+
+        long start = System.nanoTime();
+        graph.update(batch); // Throws IllegalArgumentException for unknown roads, nothing is changed then.
+        double millis = (System.nanoTime() - start) / 1e6;
+        json.append("{\"applied\":").append(batch.size());
+        json.append(",\"components\":").append(graph.getComponents().getCount());
+        json.append(",\"ms\":").append(millis).append('}');
+        return 200;
+    }
+
+    private int nearest(Map<String, String> query, StringBuilder json) {
+        double latitude = number(query, "lat");
+        double longitude = number(query, "lon");
+        Node node = graph.getNearestNode(latitude, longitude);
+        if (node == null) {
+            json.append("{\"error\":\"the map is empty\"}");
+            return 404;
+        }
+        json.append("{\"id\":");
+        string(json, node.getID());
+        json.append(",\"lat\":").append(node.getLatitude());
+        json.append(",\"lon\":").append(node.getLongitude()).append('}');
+        return 200;
+    }
+
+    private int health(Map<String, String> query, StringBuilder json) {
+        json.append("{\"status\":\"ok\",\"file\":");
+        string(json, graph.getFileName());
+        json.append(",\"nodes\":").append(graph.getNodeCount());
+        json.append(",\"edges\":").append(graph.getEdges().size());
+        json.append(",\"algorithm\":");
+        string(json, algorithm);
+        json.append(",\"requests\":").append(requests.sum());
+        RouteCache cache = graph.getRouteCache();
+        json.append(",\"cache\":{\"routes\":").append(cache.size());
+        json.append(",\"hits\":").append(cache.getHits());
+        json.append(",\"misses\":").append(cache.getMisses());
+        json.append(",\"evictions\":").append(cache.getEvictions()).append("}}");
+        return 200;
+    }
+
+    private Node node(Map<String, String> query, String parameter) {
+        String id = query.get(parameter);
+        if (id == null) {
+            throw new IllegalArgumentException("missing parameter " + parameter);
+        }
+        Node node = graph.getNodeById(id);
+        if (node == null) {
+            throw new IllegalArgumentException("unknown intersection " + id);
+        }
+        return node;
+    }
+
+    private static double number(Map<String, String> query, String parameter) {
+        String value = query.get(parameter);
+        if (value == null) {
+            throw new IllegalArgumentException("missing parameter " + parameter);
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + parameter + "=" + value);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static void string(StringBuilder json, String value) {
+
+        /* Appends value as a JSON string. */
+
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,79 @@
+public class SearchState {
+
+    /*
+     * Reusable per-query state for the int indexed searches: tentative distances,
+     * parents and the heap. The arrays are sized to the whole graph once and are
+     * never cleared. Instead every query gets a new generation number, and a node
+     * whose stamp is not the current generation is treated as unreached. A query
+     * therefore only touches the nodes it actually reaches.
+     *
+     * A SearchState is not thread safe. Every thread that routes needs its own.
+     */
+
+    private final double[] distance; // Tentative distance from the source, valid only when stamped.
+    private final int[] parent; // Previous node on the best known route, valid only when stamped.
+    private final int[] stamp; // Generation in which the node was last reached.
+    private final IndexedHeap heap;
+    private int generation;
+
+    public SearchState(int nodeCount) {
+        distance = new double[nodeCount];
+        parent = new int[nodeCount];
+        stamp = new int[nodeCount];
+        heap = new IndexedHeap(nodeCount);
+    }
+
+    public void reset() {
+
+        /* Starts a new query. Wrapping the generation counter forces a real clear. */
+
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            java.util.Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        heap.clear();
+    }
+
+    public int getNodeCount() {
+        return distance.length;
+    }
+
+    public IndexedHeap getHeap() {
+        return heap;
+    }
+
+    public boolean isReached(int node) {
+        return stamp[node] == generation;
+    }
+
+    public double getDistance(int node) {
+        return stamp[node] == generation ? distance[node] : Double.POSITIVE_INFINITY;
+    }
+
+    public int getParent(int node) {
+        return stamp[node] == generation ? parent[node] : -1;
+    }
+
+    public void update(int node, double newDistance, int newParent) {
+        stamp[node] = generation;
+        distance[node] = newDistance;
+        parent[node] = newParent;
+    }
+
+    public int[] pathTo(int target) {
+
+        /* Follows the parents back from target and returns the route source first. */
+
+        int length = 0;
+        for (int node = target; node != -1; node = getParent(node)) {
+            length++;
+        }
+
+        int[] path = new int[length];
+        for (int node = target; node != -1; node = getParent(node)) {
+            path[--length] = node;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,195 @@
+import java.lang.management.ManagementFactory;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+public class SearchStats {
+
+    /*
+     * What one route() call did: nodes settled (polled from the queue), roads
+     * relaxed (looked at from a settled node), queue pushes, decrease-keys and
+     * polls, the largest queue size, wall time and bytes allocated by the calling
+     * thread. IndexedHeap re-keys a queued node instead of queueing it again, so
+     * there are no stale entries to skip; decrease-keys are counted instead.
+     *
+     * Every engine keeps one instance and fills it on each query (see
+     * Router.getStats()). When Java Flight Recorder is recording, every query is
+     * also written as a routing.Search event, so a recording of a production run
+     * shows the same numbers.
+     */
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final String algorithm;
+    private int source;
+    private int target;
+    private boolean found;
+    private double distance;
+    private long queries; // 1 for a single query, more once others were added.
+    private long settled;
+    private long relaxed;
+    private long pushes;
+    private long decreases;
+    private long peakQueue;
+    private long nanos;
+    private long allocatedBytes;
+
+    private long startNanos;
+    private long startBytes;
+
+    public SearchStats(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public void begin(int source, int target, IndexedHeap first, IndexedHeap second) {
+
+        /* Called by the engine before the search; second is null for one-sided searches. */
+
+        this.source = source;
+        this.target = target;
+        first.resetCounters();
+        if (second != null) {
+            second.resetCounters();
+        }
+        startBytes = THREADS.getCurrentThreadAllocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    public void end(RouteResult result, long relaxedRoads, IndexedHeap first, IndexedHeap second) {
+
+        /* Called by the engine after the search, with the roads it relaxed. */
+
+        nanos = System.nanoTime() - startNanos;
+        allocatedBytes = THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+        queries = 1;
+        found = result != null;
+        distance = found ? result.getDistance() : Double.POSITIVE_INFINITY;
+        relaxed = relaxedRoads;
+        settled = first.getPolls();
+        pushes = first.getPushes();
+        decreases = first.getDecreases();
+        peakQueue = first.getPeakSize();
+        if (second != null) {
+            settled += second.getPolls();
+            pushes += second.getPushes();
+            decreases += second.getDecreases();
+            peakQueue += second.getPeakSize();
+        }
+
+        SearchEvent event = new SearchEvent();
+        if (event.isEnabled()) {
+            event.algorithm = algorithm;
+            event.source = source;
+            event.target = target;
+            event.found = found;
+            event.distance = distance;
+            event.settled = settled;
+            event.relaxed = relaxed;
+            event.pushes = pushes;
+            event.decreases = decreases;
+            event.peakQueue = peakQueue;
+            event.wallTime = nanos;
+            event.allocated = allocatedBytes;
+            event.commit();
+        }
+    }
+
+    public void add(SearchStats other) {
+
+        /* Sums the counters of other into this one; the peak queue is the larger one. */
+
+        queries += other.queries;
+        settled += other.settled;
+        relaxed += other.relaxed;
+        pushes += other.pushes;
+        decreases += other.decreases;
+        peakQueue = Math.max(peakQueue, other.peakQueue);
+        nanos += other.nanos;
+        allocatedBytes += other.allocatedBytes;
+    }
+
+    public long getQueries() {
+        return queries;
+    }
+
+    public long getSettled() {
+        return settled;
+    }
+
+    public long getRelaxed() {
+        return relaxed;
+    }
+
+    public long getPushes() {
+        return pushes;
+    }
+
+    public long getDecreases() {
+        return decreases;
+    }
+
+    public long getPeakQueue() {
+        return peakQueue;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        if (queries > 1) {
+            double q = queries;
+            return String.format("%s, per query over %d queries: settled %.0f, relaxed %.0f, pushes %.0f, "
+                    + "decrease-keys %.0f, time %.3f ms, allocated %.0f bytes; peak queue %d", algorithm, queries,
+                    settled / q, relaxed / q, pushes / q, decreases / q, nanos / q / 1e6, allocatedBytes / q,
+                    peakQueue);
+        }
+        return String.format("%s: settled %d, relaxed %d, pushes %d, decrease-keys %d, peak queue %d, "
+                + "time %.3f ms, allocated %d bytes", algorithm, settled, relaxed, pushes, decreases, peakQueue,
+                nanos / 1e6, allocatedBytes);
+    }
+
+    @Name("routing.Search")
+    @Label("Route Search")
+    @Category("Routing")
+    @Description("One point-to-point query of a routing engine")
+    private static class SearchEvent extends Event {
+        @Label("Algorithm")
+        String algorithm;
+        @Label("Source Index")
+        int source;
+        @Label("Target Index")
+        int target;
+        @Label("Found")
+        boolean found;
+        @Label("Distance (miles)")
+        double distance;
+        @Label("Nodes Settled")
+        long settled;
+        @Label("Roads Relaxed")
+        long relaxed;
+        @Label("Queue Pushes")
+        long pushes;
+        @Label("Decrease-Keys")
+        long decreases;
+        @Label("Peak Queue Size")
+        long peakQueue;
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallTime;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+}
@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+public class SpatialIndex {
+
+    /*
+     * Uniform grid over the node coordinates, built once per graph. Answers
+     * nearest node, k nearest nodes and bounding box queries by only looking at
+     * the cells around the query.
+     *
+     * Coordinates are projected to x = longitude * cos(mean latitude),
+     * y = latitude, so a degree of longitude and a degree of latitude count the
+     * same on the ground near the middle of the map. Nearest queries rank nodes
+     * by straight-line distance in this projection, which is exact enough for
+     * snapping to intersections on a city or state sized map.
+     * The cells are stored like Adjacency: cellStart[c] .. cellStart[c + 1] - 1
+     * are the positions of the nodes of cell c in cellNodes.
+     */
+
+    private static final double NODES_PER_CELL = 2.0;
+
+    private final double[] xs; // Projected coordinates by node index.
+    private final double[] ys;
+    private final double cosLatitude; // Scale of the longitude axis.
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellNodes;
+
+    public SpatialIndex(Graph graph) {
+        int n = graph.getNodeCount();
+        xs = new double[n];
+        ys = new double[n];
+
+        double latitudeSum = 0;
+        for (int i = 0; i < n; i++) {
+            latitudeSum += graph.getNode(i).getLatitude();
+        }
+        cosLatitude = Math.cos(Math.toRadians(n == 0 ? 0 : latitudeSum / n));
+
+        double lowX = Double.POSITIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        double highX = Double.NEGATIVE_INFINITY;
+        double highY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            Node node = graph.getNode(i);
+            xs[i] = node.getLongitude() * cosLatitude;
+            ys[i] = node.getLatitude();
+            lowX = Math.min(lowX, xs[i]);
+            lowY = Math.min(lowY, ys[i]);
+            highX = Math.max(highX, xs[i]);
+            highY = Math.max(highY, ys[i]);
+        }
+        if (n == 0) {
+            lowX = lowY = highX = highY = 0;
+        }
+
+        // Square cells, sized so that there are about NODES_PER_CELL nodes per cell.
+        double width = Math.max(highX - lowX, 1e-9);
+        double height = Math.max(highY - lowY, 1e-9);
+        double size = Math.sqrt(width * height * NODES_PER_CELL / Math.max(1, n));
+        minX = lowX;
+        minY = lowY;
+        columns = (int) Math.min(1 << 15, Math.max(1, Math.ceil(width / size)));
+        rows = (int) Math.min(1 << 15, Math.max(1, Math.ceil(height / size)));
+        cellSize = Math.max(width / columns, height / rows) * (1 + 1e-12);
+
+        cellStart = new int[columns * rows + 1];
+        int[] cellOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = cell(column(xs[i]), row(ys[i]));
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = Arrays.copyOf(cellStart, columns * rows);
+        cellNodes = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellNodes[next[cellOf[i]]++] = i;
+        }
+    }
+
+    public int nearest(double latitude, double longitude) {
+
+        /* Index of the node closest to the given point, or -1 for an empty graph. */
+
+        int[] result = nearest(latitude, longitude, 1);
+        return result.length == 0 ? -1 : result[0];
+    }
+
+    public int[] nearest(double latitude, double longitude, int k) {
+
+        /*
+         * Indices of the k nodes closest to the given point, closest first.
+         * Rings of cells around the point are searched outwards until the ring is
+         * farther away than the k-th best node found so far.
+         */
+
+        double qx = longitude * cosLatitude;
+        double qy = latitude;
+        k = Math.min(k, cellNodes.length);
+        int[] best = new int[k];
+        double[] bestDistance = new double[k];
+        int found = 0;
+
+        int cx = Math.max(0, Math.min(columns - 1, column(qx)));
+        int cy = Math.max(0, Math.min(rows - 1, row(qy)));
+
+        for (int r = 0; k > 0; r++) {
+            for (int y = cy - r; y <= cy + r; y++) {
+                if (y < 0 || y >= rows) {
+                    continue;
+                }
+                boolean edgeRow = y == cy - r || y == cy + r;
+                for (int x = cx - r; x <= cx + r; x += edgeRow ? 1 : 2 * r) {
+                    if (x < 0 || x >= columns) {
+                        continue;
+                    }
+                    int c = cell(x, y);
+                    for (int p = cellStart[c]; p < cellStart[c + 1]; p++) {
+                        int node = cellNodes[p];
+                        double dx = xs[node] - qx;
+                        double dy = ys[node] - qy;
+                        double d = dx * dx + dy * dy;
+                        if (found < k || d < bestDistance[found - 1]) {
+                            // Insertion into the sorted best list; k is small.
+                            int i = found < k ? found++ : k - 1;
+                            while (i > 0 && bestDistance[i - 1] > d) {
+                                best[i] = best[i - 1];
+                                bestDistance[i] = bestDistance[i - 1];
+                                i--;
+                            }
+                            best[i] = node;
+                            bestDistance[i] = d;
+                        }
+                    }
+                }
+            }
+
+            boolean coversGrid = cx - r <= 0 && cy - r <= 0 && cx + r >= columns - 1 && cy + r >= rows - 1;
+            if (coversGrid) {
+                break;
+            }
+            double reach = ringReach(qx, qy, cx, cy, r);
+            if (found == k && reach * reach >= bestDistance[k - 1]) {
+                break;
+            }
+        }
+
+        return found == k ? best : Arrays.copyOf(best, found);
+    }
+
+    public void within(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+            IntList result) {
+
+        /*
+         * Appends the indices of all nodes inside the bounding box to result. Only
+         * the cells overlapping the box are visited, so the cost follows the size of
+         * the box, not the size of the map.
+         */
+
+        double x0 = minLongitude * cosLatitude;
+        double x1 = maxLongitude * cosLatitude;
+        int firstColumn = Math.max(0, column(x0));
+        int lastColumn = Math.min(columns - 1, column(x1));
+        int firstRow = Math.max(0, row(minLatitude));
+        int lastRow = Math.min(rows - 1, row(maxLatitude));
+
+        for (int y = firstRow; y <= lastRow; y++) {
+            for (int x = firstColumn; x <= lastColumn; x++) {
+                int c = cell(x, y);
+                for (int p = cellStart[c]; p < cellStart[c + 1]; p++) {
+                    int node = cellNodes[p];
+                    if (xs[node] >= x0 && xs[node] <= x1 && ys[node] >= minLatitude && ys[node] <= maxLatitude) {
+                        result.add(node);
+                    }
+                }
+            }
+        }
+    }
+
+    private double ringReach(double qx, double qy, int cx, int cy, int r) {
+
+        /*
+         * Distance from the query to the nearest cell of the grid not searched yet,
+         * infinite when the whole grid is searched. Those cells lie in up to four
+         * strips around the block of searched cells, each reaching to the edge of
+         * the grid. The query may lie outside the grid, for a point off the map,
+         * so the distance is measured to the strips themselves, not to the edge of
+         * the block.
+         */
+
+        double gridLeft = minX;
+        double gridRight = minX + columns * cellSize;
+        double gridBottom = minY;
+        double gridTop = minY + rows * cellSize;
+        double reach = Double.POSITIVE_INFINITY;
+        if (cx - r > 0) {
+            reach = Math.min(reach, distance(qx, qy, gridLeft, gridBottom, minX + (cx - r) * cellSize, gridTop));
+        }
+        if (cx + r < columns - 1) {
+            reach = Math.min(reach, distance(qx, qy, minX + (cx + r + 1) * cellSize, gridBottom, gridRight, gridTop));
+        }
+        if (cy - r > 0) {
+            reach = Math.min(reach, distance(qx, qy, gridLeft, gridBottom, gridRight, minY + (cy - r) * cellSize));
+        }
+        if (cy + r < rows - 1) {
+            reach = Math.min(reach, distance(qx, qy, gridLeft, minY + (cy + r + 1) * cellSize, gridRight, gridTop));
+        }
+        return reach;
+    }
+
+    private static double distance(double qx, double qy, double left, double bottom, double right, double top) {
+
+        /* Distance from the point to the rectangle, 0 inside it. */
+
+        double dx = Math.max(0, Math.max(left - qx, qx - right));
+        double dy = Math.max(0, Math.max(bottom - qy, qy - top));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private int column(double x) {
+        return (int) Math.floor((x - minX) / cellSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - minY) / cellSize);
+    }
+
+    private int cell(int column, int row) {
+        return row * columns + column;
+    }
+}
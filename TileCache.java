@@ -0,0 +1,168 @@
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TileCache {
+
+    /*
+     * Map images for DrawingPanel, cut into square tiles so panning only needs
+     * the tiles that come into view and zooming can fall back to tiles that are
+     * already there.
+     *
+     * A tile is keyed by (level, x, y). The level is the zoom rounded to a whole
+     * number of mouse wheel notches, level = round(log(zoom) / log(1.1)), and tile
+     * space at a level is the map rotated like on screen and scaled by 1.1^level:
+     * u = 1.1^level * map y, v = -1.1^level * map x. Tile (x, y) covers
+     * u in [x * TILE_SIZE, (x + 1) * TILE_SIZE) and v likewise, so at the exact
+     * zoom a tile is copied to the screen without scaling.
+     *
+     * Missing tiles are rendered on background threads, each with its own
+     * MapRenderer, and the listener is told when one is ready. Requests for a
+     * level that is no longer wanted are dropped when their turn comes. Finished
+     * tiles go into an LRU cache bounded by the memory the images use.
+     */
+
+    public static final int TILE_SIZE = 256;
+    private static final double LEVEL_FACTOR = 1.1; // One mouse wheel notch.
+    private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+
+    private final ThreadLocal<MapRenderer> renderers;
+    private final Runnable listener; // Called from a worker thread whenever a tile is ready.
+    private final ExecutorService executor;
+    private final long maxBytes;
+
+    private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    private volatile int wantedLevel;
+
+    public TileCache(MapRenderer renderer, Runnable listener) {
+        this.renderers = ThreadLocal.withInitial(renderer::copy);
+        this.listener = listener;
+        this.maxBytes = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8);
+
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "map-tiles");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static int levelFor(double zoom) {
+        return (int) Math.round(Math.log(zoom) / Math.log(LEVEL_FACTOR));
+    }
+
+    public static double scaleOf(int level) {
+        return Math.pow(LEVEL_FACTOR, level);
+    }
+
+    public static void tileToScreen(AffineTransform result, AffineTransform mapToScreen, int level) {
+
+        /*
+         * Sets result to the transform from tile space at level to the screen,
+         * given the transform from map coordinates to the screen.
+         */
+
+        double scale = scaleOf(level);
+        result.setTransform(mapToScreen);
+        result.scale(1 / scale, 1 / scale);
+        result.rotate(Math.PI / 2);
+    }
+
+    public void setWantedLevel(int level) {
+        wantedLevel = level;
+    }
+
+    public synchronized BufferedImage get(int level, int x, int y) {
+
+        /* The cached tile, or null. Counts as a use for the LRU order. */
+
+        return tiles.get(key(level, x, y));
+    }
+
+    public void request(int level, int x, int y) {
+
+        /* Queues the tile for rendering unless it is cached or already queued. */
+
+        long key = key(level, x, y);
+        synchronized (this) {
+            if (tiles.containsKey(key)) {
+                return;
+            }
+        }
+        if (executor.isShutdown() || !pending.add(key)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                if (level != wantedLevel) {
+                    return;
+                }
+                BufferedImage image = render(renderers.get(), level, x, y);
+                put(key, image);
+                listener.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                pending.remove(key);
+            }
+        });
+    }
+
+    public synchronized void clear() {
+
+        /* Drops every tile, for when the graph itself changed. */
+
+        tiles.clear();
+    }
+
+    public void shutdown() {
+
+        /* Stops the worker threads, for when the cache is replaced. Queued tiles are dropped. */
+
+        executor.shutdownNow();
+    }
+
+    private synchronized void put(long key, BufferedImage image) {
+        tiles.put(key, image);
+        Iterator<Map.Entry<Long, BufferedImage>> eldest = tiles.entrySet().iterator();
+        while (tiles.size() * TILE_BYTES > maxBytes && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private static BufferedImage render(MapRenderer renderer, int level, int x, int y) {
+        double scale = scaleOf(level);
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setColor(MapRenderer.BACKGROUND_COLOR);
+            g2d.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+
+            g2d.translate(-x * TILE_SIZE, -y * TILE_SIZE);
+            g2d.rotate(3 * Math.PI / 2);
+            g2d.scale(scale, scale);
+
+            // The tile in map coordinates: map x = -v / scale, map y = u / scale.
+            Rectangle2D view = new Rectangle2D.Double(-(y + 1) * TILE_SIZE / scale, x * TILE_SIZE / scale,
+                    TILE_SIZE / scale, TILE_SIZE / scale);
+            renderer.drawMap(g2d, view, scale);
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    private static long key(int level, int x, int y) {
+        return ((long) (level & 0xff) << 56) | ((long) (x & 0xfffffff) << 28) | (y & 0xfffffff);
+    }
+}
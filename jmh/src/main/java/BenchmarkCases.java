@@ -0,0 +1,45 @@
+import bench.Cases;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.LongSupplier;
+
+public class BenchmarkCases implements Cases {
+
+    /* The cases of Benchmark.java for the JMH benchmarks, see Cases. */
+
+    @Override
+    public String grid(int size) throws IOException {
+        return Benchmark.generated(size).toString();
+    }
+
+    @Override
+    public LongSupplier load(String file) {
+        return supplier(Benchmark.loadTask(file));
+    }
+
+    @Override
+    public LongSupplier route(String file, String algorithm, int distanceClass) throws IOException {
+        return supplier(Benchmark.routeTask(new Graph(file), algorithm, distanceClass));
+    }
+
+    @Override
+    public LongSupplier paint(String file, int zoom) throws IOException {
+        Graph graph = new Graph(file);
+        return supplier(Benchmark.paintTask(graph, new MapRenderer(graph), zoom));
+    }
+
+    @Override
+    public Haversine haversine() {
+        return Edge::haversine;
+    }
+
+    private static LongSupplier supplier(Benchmark.Task task) {
+        return () -> {
+            try {
+                return task.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package bench;
+
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+public interface Cases {
+
+    /*
+     * The workloads the benchmarks measure. The map program is in the default
+     * package, which JMH does not allow for benchmark classes and which can not be
+     * imported from a named package, so the benchmarks reach it through this
+     * interface. BenchmarkCases implements it in the default package on top of the
+     * tasks of Benchmark.java, so JMH and the hand-run harness measure the same code.
+     */
+
+    String grid(int size) throws IOException; // File of a size x size GraphGenerator grid.
+
+    LongSupplier load(String file); // new Graph(file).
+
+    LongSupplier route(String file, String algorithm, int distanceClass) throws IOException; // 50 queries.
+
+    LongSupplier paint(String file, int zoom) throws IOException; // One offscreen frame.
+
+    Haversine haversine();
+
+    interface Haversine {
+        double distance(double latitude1, double longitude1, double latitude2, double longitude2);
+    }
+
+    static Cases get() {
+        try {
+            return (Cases) Class.forName("BenchmarkCases").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkCases not on the class path", e);
+        }
+    }
+}
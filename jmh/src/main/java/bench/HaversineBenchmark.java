@@ -0,0 +1,45 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HaversineBenchmark {
+
+    /* Edge.haversine between coordinates around Rochester, cycling through 1024 pairs. */
+
+    private final double[] coordinates = new double[4 * 1024];
+    private Cases.Haversine haversine;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            coordinates[i] = 43.0 + random.nextDouble() * 0.2;
+            coordinates[i + 1] = -77.8 + random.nextDouble() * 0.2;
+        }
+        haversine = Cases.get().haversine();
+    }
+
+    @Benchmark
+    public double haversine() {
+        int j = (4 * next++) & (coordinates.length - 1);
+        return haversine.distance(coordinates[j], coordinates[j + 1], coordinates[j + 2], coordinates[j + 3]);
+    }
+}
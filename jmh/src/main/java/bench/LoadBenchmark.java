@@ -0,0 +1,43 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+    /* new Graph(file), as the program loads a map, on grids of 10k to 1M intersections. */
+
+    @Param({ "100", "300", "1000" })
+    private int size;
+
+    private LongSupplier load;
+
+    @Setup
+    public void setup() throws IOException {
+        Cases cases = Cases.get();
+        load = cases.load(cases.grid(size));
+    }
+
+    @Benchmark
+    public long load() {
+        return load.getAsLong();
+    }
+}
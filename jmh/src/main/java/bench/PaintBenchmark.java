@@ -0,0 +1,50 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+
+    /*
+     * One offscreen 1024x768 frame of a generated grid, the whole map or zoomed in.
+     * DrawingPanel.paintComponent only copies finished tiles, so this measures
+     * MapRenderer.drawMap, which draws those tiles.
+     */
+
+    @Param({ "1", "16" })
+    private int zoom;
+
+    @Param({ "300" })
+    private int size;
+
+    private LongSupplier frame;
+
+    @Setup
+    public void setup() throws IOException {
+        Cases cases = Cases.get();
+        frame = cases.paint(cases.grid(size), zoom);
+    }
+
+    @Benchmark
+    public long paint() {
+        return frame.getAsLong();
+    }
+}
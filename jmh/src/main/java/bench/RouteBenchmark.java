@@ -0,0 +1,58 @@
+package bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteBenchmark {
+
+    /*
+     * Fixed seeded origin/destination pairs on a generated grid: the shortest,
+     * middle and longest tenth of random pairs by straight-line distance. Reported
+     * per query; every invocation answers the 50 queries of its class.
+     */
+
+    private static final String[] DISTANCES = { "short", "medium", "long" };
+
+    @Param({ "short", "medium", "long" })
+    private String distance;
+
+    @Param({ "dijkstra" })
+    private String algorithm; // Any --algo value, for example -p algorithm=dijkstra,astar,ch
+
+    @Param({ "300" })
+    private int size;
+
+    private LongSupplier queries;
+
+    @Setup
+    public void setup() throws IOException {
+        Cases cases = Cases.get();
+        queries = cases.route(cases.grid(size), algorithm, Arrays.asList(DISTANCES).indexOf(distance));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(50)
+    public long route() {
+        return queries.getAsLong();
+    }
+}